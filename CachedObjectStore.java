@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.List;
+
+/** An ObjectStore keeping the contents of the small objects read from
+ *  another in an ObjectCache, so that reading an object again does not
+ *  touch the disk.  Objects of more than MAX_CACHED bytes are only
+ *  streamed, never held in memory whole.
+ *  @author Nithish Rajan
+ */
+class CachedObjectStore implements ObjectStore {
+
+    /** Largest object whose contents are cached. */
+    static final int MAX_CACHED = 1 << 20;
+
+    /** A store reading the objects of STORE through CACHE. */
+    CachedObjectStore(ObjectStore store, ObjectCache<byte[]> cache) {
+        _store = store;
+        _cache = cache;
+    }
+
+    @Override
+    public boolean has(ObjectId id) {
+        return _store.has(id);
+    }
+
+    /** Returns a stream over the contents of object ID.  When it is not
+     *  cached, up to MAX_CACHED bytes are read at once, and if that is
+     *  the whole object it is cached. */
+    @Override
+    public InputStream open(ObjectId id) {
+        byte[] cached = _cache.get(id);
+        if (cached != null) {
+            return new ByteArrayInputStream(cached);
+        }
+        InputStream in = _store.open(id);
+        try {
+            byte[] head = in.readNBytes(MAX_CACHED + 1);
+            if (head.length > MAX_CACHED) {
+                return new SequenceInputStream(
+                    new ByteArrayInputStream(head), in);
+            }
+            in.close();
+            _cache.put(id, head);
+            return new ByteArrayInputStream(head);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        byte[] result = _cache.get(id);
+        if (result == null) {
+            result = _store.read(id);
+            if (result.length <= MAX_CACHED) {
+                _cache.put(id, result);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void write(ObjectId id, String type, long size, InputStream in) {
+        _store.write(id, type, size, in);
+    }
+
+    @Override
+    public ObjectId insert(String type, File file) {
+        return _store.insert(type, file);
+    }
+
+    @Override
+    public void delete(ObjectId id) {
+        _cache.remove(id);
+        _store.delete(id);
+    }
+
+    @Override
+    public List<ObjectId> withPrefix(String prefix) {
+        return _store.withPrefix(prefix);
+    }
+
+    @Override
+    public List<ObjectId> ids() {
+        return _store.ids();
+    }
+
+    /** The store read through the cache. */
+    private final ObjectStore _store;
+    /** Contents of objects of _store, by ID. */
+    private final ObjectCache<byte[]> _cache;
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/** An ObjectStore made of a read-only ObjectSource in front of another
+ *  store.  Reads look in the source first and then in the store; writes
+ *  go to the store, which is the only one objects are deleted from.  A
+ *  repository chains its packs in front of its loose objects this way,
+ *  so an object is found whether or not it has been packed.
+ *  @author Nithish Rajan
+ */
+class ChainedObjectStore implements ObjectStore {
+
+    /** A store reading from FRONT and then WRITABLE, and writing to
+     *  WRITABLE. */
+    ChainedObjectStore(ObjectSource front, ObjectStore writable) {
+        _front = front;
+        _writable = writable;
+        _sources = new ObjectSource[] { front, writable };
+    }
+
+    @Override
+    public boolean has(ObjectId id) {
+        return sourceFor(id) != null;
+    }
+
+    @Override
+    public InputStream open(ObjectId id) {
+        ObjectSource source = sourceFor(id);
+        if (source == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return source.open(id);
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        ObjectSource source = sourceFor(id);
+        if (source == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return source.read(id);
+    }
+
+    @Override
+    public void write(ObjectId id, String type, long size, InputStream in) {
+        if (!has(id)) {
+            _writable.write(id, type, size, in);
+        }
+    }
+
+    /** Stores FILE in the writable store, dropping the new copy if the
+     *  source in front already held the object. */
+    @Override
+    public ObjectId insert(String type, File file) {
+        ObjectId id = _writable.insert(type, file);
+        if (_front.has(id)) {
+            _writable.delete(id);
+        }
+        return id;
+    }
+
+    @Override
+    public void delete(ObjectId id) {
+        _writable.delete(id);
+    }
+
+    @Override
+    public List<ObjectId> withPrefix(String prefix) {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (ObjectSource source : _sources) {
+            result.addAll(source.withPrefix(prefix));
+        }
+        return new ArrayList<>(result);
+    }
+
+    @Override
+    public List<ObjectId> ids() {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (ObjectSource source : _sources) {
+            result.addAll(source.ids());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the first source holding object ID, or null if none
+     *  does. */
+    private ObjectSource sourceFor(ObjectId id) {
+        for (ObjectSource source : _sources) {
+            if (source.has(id)) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    /** The read-only source read first. */
+    private final ObjectSource _front;
+    /** The sources read, in order. */
+    private final ObjectSource[] _sources;
+    /** The store written to. */
+    private final ObjectStore _writable;
+}
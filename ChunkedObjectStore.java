@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/** A store of blobs that keeps large files in content-defined chunks.  A
+ *  file of at least THRESHOLD bytes is cut wherever a rolling "gear" hash
+ *  of its last bytes matches a mask (as in FastCDC), so an edit moves only
+ *  the cuts near it, and the chunks before and after it are the same as
+ *  in the old version.  Each chunk is kept as an ordinary blob, named by
+ *  the SHA-1 of its contents, so chunks shared by versions or files are
+ *  stored once.  The file's blob is then a manifest listing its chunks,
+ *  kept in a separate store under the ID of the whole file, so blob IDs
+ *  (and so the index and trees) are the same whether or not a file was
+ *  chunked.  Reading a chunked blob streams its chunks in turn, never
+ *  holding the file in memory.
+ *
+ *  A manifest holds, for each chunk in order, its 20-byte ID followed by
+ *  its length as a 4-byte integer.  Manifests always stay loose, but
+ *  the chunks are packed like other blobs, and a chunk already packed is
+ *  not written again.
+ *  @author Nithish Rajan
+ */
+class ChunkedObjectStore implements ObjectStore {
+
+    /** Size of the smallest file kept in chunks. */
+    static final long THRESHOLD = 1 << 20;
+
+    /** A store keeping small blobs and chunks in BLOBS and the manifests
+     *  of chunked blobs in MANIFESTS. */
+    ChunkedObjectStore(ObjectStore blobs, ObjectStore manifests) {
+        _blobs = blobs;
+        _manifests = manifests;
+    }
+
+    /** Returns true iff blob ID is kept as a manifest of chunks rather
+     *  than whole. */
+    boolean isChunked(ObjectId id) {
+        return !_blobs.has(id) && _manifests.has(id);
+    }
+
+    /** Returns the IDs of the chunks of chunked blob ID, in order. */
+    List<ObjectId> chunks(ObjectId id) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        ByteBuffer manifest = ByteBuffer.wrap(_manifests.read(id));
+        for (int p = 0; p < manifest.limit(); p += ENTRY_SIZE) {
+            result.add(ObjectId.fromBuffer(manifest, p));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean has(ObjectId id) {
+        return _blobs.has(id) || _manifests.has(id);
+    }
+
+    /** Returns a stream over the contents of blob ID, which, for a
+     *  chunked blob, opens each chunk only when the one before it has
+     *  been read. */
+    @Override
+    public InputStream open(ObjectId id) {
+        if (!isChunked(id)) {
+            return _blobs.open(id);
+        }
+        ByteBuffer manifest = ByteBuffer.wrap(_manifests.read(id));
+        Enumeration<InputStream> chunks = new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return manifest.hasRemaining();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                ObjectId chunk =
+                    ObjectId.fromBuffer(manifest, manifest.position());
+                manifest.position(manifest.position() + ENTRY_SIZE);
+                return _blobs.open(chunk);
+            }
+        };
+        return new SequenceInputStream(chunks);
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        if (!isChunked(id)) {
+            return _blobs.read(id);
+        }
+        return ObjectStore.super.read(id);
+    }
+
+    /** Writes the SIZE bytes read from IN as object ID of type TYPE,
+     *  unless it is already present, in chunks if it is a blob of at
+     *  least THRESHOLD bytes. */
+    @Override
+    public void write(ObjectId id, String type, long size, InputStream in) {
+        if (!type.equals(BLOB) || size < THRESHOLD) {
+            _blobs.write(id, type, size, in);
+        } else if (!has(id)) {
+            try {
+                chunk(id, in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Stores the contents of FILE as an object of type TYPE and returns
+     *  its ID, in chunks if it is a blob of at least THRESHOLD bytes.
+     *  FILE is read just once. */
+    @Override
+    public ObjectId insert(String type, File file) {
+        if (!type.equals(BLOB) || file.length() < THRESHOLD) {
+            return _blobs.insert(type, file);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return chunk(null, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Splits the contents read from IN into chunks, stores those not
+     *  already present, and stores the manifest listing them as blob ID,
+     *  or, if ID is null, under the SHA-1 of the contents.  Returns the
+     *  ID of the blob. */
+    private ObjectId chunk(ObjectId id, InputStream in) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                                               + "SHA-1");
+        }
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(manifest);
+        byte[] buf = new byte[MAX_CHUNK];
+        int length = 0;
+        while (true) {
+            length += in.readNBytes(buf, length, buf.length - length);
+            if (length == 0) {
+                break;
+            }
+            int cut = cutPoint(buf, length);
+            byte[] chunk = new byte[cut];
+            System.arraycopy(buf, 0, chunk, 0, cut);
+            ObjectId chunkId = Utils.sha1Id(chunk);
+            _blobs.write(chunkId, BLOB, chunk);
+            md.update(chunk);
+            out.write(chunkId.toRaw());
+            out.writeInt(cut);
+            System.arraycopy(buf, cut, buf, 0, length - cut);
+            length -= cut;
+        }
+        if (id == null) {
+            id = ObjectId.fromRaw(md.digest(), 0);
+        }
+        _manifests.write(id, BLOB, manifest.toByteArray());
+        return id;
+    }
+
+    /** Returns the length of the chunk starting the LENGTH bytes of
+     *  BUF.  Below the normal chunk size the hash must match the harder
+     *  mask MASK_SMALL, and beyond it the easier MASK_LARGE, which keeps
+     *  most chunks near the normal size.  A chunk is never shorter than
+     *  MIN_CHUNK, unless it ends the file, nor longer than MAX_CHUNK. */
+    static int cutPoint(byte[] buf, int length) {
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int normal = Math.min(NORMAL_CHUNK, length);
+        long hash = 0;
+        int i;
+        for (i = MIN_CHUNK; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i += 1) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /** Removes blob ID, if it is kept whole.  Chunked blobs are never
+     *  removed, since their chunks may be shared. */
+    @Override
+    public void delete(ObjectId id) {
+        _blobs.delete(id);
+    }
+
+    @Override
+    public List<ObjectId> withPrefix(String prefix) {
+        TreeSet<ObjectId> result = new TreeSet<>(_blobs.withPrefix(prefix));
+        result.addAll(_manifests.withPrefix(prefix));
+        return new ArrayList<>(result);
+    }
+
+    @Override
+    public List<ObjectId> ids() {
+        TreeSet<ObjectId> result = new TreeSet<>(_blobs.ids());
+        result.addAll(_manifests.ids());
+        return new ArrayList<>(result);
+    }
+
+    /** Shortest chunk, other than the last of a file. */
+    private static final int MIN_CHUNK = 16 << 10;
+    /** Size around which chunk lengths are concentrated. */
+    private static final int NORMAL_CHUNK = 64 << 10;
+    /** Longest chunk. */
+    static final int MAX_CHUNK = 256 << 10;
+    /** Mask of 18 bits applied to the hash below the normal size.  Only
+     *  high bits are used, since each depends on the last 64 bytes. */
+    private static final long MASK_SMALL = -1L << (Long.SIZE - 18);
+    /** Mask of 14 bits applied to the hash beyond the normal size. */
+    private static final long MASK_LARGE = -1L << (Long.SIZE - 14);
+    /** Size of one chunk's entry in a manifest. */
+    private static final int ENTRY_SIZE = ObjectId.LENGTH + 4;
+    /** Random value added to the hash for each byte value.  The seed is
+     *  fixed, so that every repository cuts files at the same places. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x67697466L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Store of small blobs and of chunks. */
+    private final ObjectStore _blobs;
+    /** Store of the manifests of chunked blobs. */
+    private final ObjectStore _manifests;
+}
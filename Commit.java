@@ -1,46 +1,50 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.TreeMap;
 
 
 public class Commit implements Serializable {
+    /** Fixed, so that adding methods leaves stored commits readable. */
+    private static final long serialVersionUID = -3067052980662754036L;
     /** Commit Message. */
     private String message;
-    /** Commit Parent. */
-    private Commit parent;
+    /** SHA-1 ID of the Commit Parent. */
+    private ObjectId parent;
     /** Date commit was made. */
     private ZonedDateTime date;
-    /** Blob Files of the Commit. */
-    private TreeMap<String, String> blobs;
-    /** If merge Commit, first parent. */
-    private Commit parent1;
-    /** If merge Commit, second parent. */
-    private Commit parent2;
+    /** SHA-1 ID of the tree of the files in the Commit. */
+    private ObjectId tree;
+    /** If merge Commit, SHA-1 ID of the first parent. */
+    private ObjectId parent1;
+    /** If merge Commit, SHA-1 ID of the second parent. */
+    private ObjectId parent2;
     /** If Commit is Merge Commit. */
     private boolean isMerge;
+    /** SHA-1 ID of this Commit, fixed when it is created. */
+    private ObjectId id;
 
     public Commit(String inMessage, ZonedDateTime inDate,
-                  Commit inParent, TreeMap<String, String> inBlobs) {
+                  ObjectId inParent, ObjectId inTree) {
         this.message = inMessage;
         this.parent = inParent;
         this.date = inDate;
-        this.blobs = inBlobs;
+        this.tree = inTree;
         isMerge = false;
+        this.id = Utils.sha1Id(Utils.serialize(this));
     }
 
-    public Commit(String inMessage, ZonedDateTime inDate, Commit inParent1,
-                  Commit inParent2, TreeMap<String, String> inBlobs) {
+    public Commit(String inMessage, ZonedDateTime inDate,
+                  ObjectId inParent1, ObjectId inParent2,
+                  ObjectId inTree) {
         this.message = inMessage;
         this.parent1 = inParent1;
         this.parent2 = inParent2;
         this.date = inDate;
-        this.blobs = inBlobs;
+        this.tree = inTree;
         isMerge = true;
+        this.id = Utils.sha1Id(Utils.serialize(this));
     }
 
     public String getMessage() {
@@ -55,41 +59,54 @@ public class Commit implements Serializable {
         return now.format(DateTimeFormatter.ofPattern("EEE MMM d "
                 + "HH:mm:ss yyyy xxxx"));
     }
-    public Commit getParent() {
+
+    /** Returns the time this Commit was made, in seconds since the
+     *  epoch. */
+    public long getTime() {
+        return date.toEpochSecond();
+    }
+
+    /** Returns the SHA-1 ID of the parent, or null for the initial
+     *  commit. */
+    public ObjectId getParent() {
         return this.parent;
     }
 
-    public Commit[] getParent2() {
-        Commit[] pList = new Commit[2];
+    /** Returns the SHA-1 IDs of both parents of a merge commit. */
+    public ObjectId[] getParent2() {
+        ObjectId[] pList = new ObjectId[2];
         pList[0] = parent1;
         pList[1] = parent2;
         return pList;
     }
 
-    public TreeMap<String, String> getBlobs() {
-        return this.blobs;
+    /** Returns the SHA-1 ID of the tree of the files in this Commit
+     *  (see TreeStore). */
+    public ObjectId getTree() {
+        return this.tree;
+    }
+
+    /** Returns the SHA-1 ID computed when this Commit was made. */
+    public ObjectId getId() {
+        return this.id;
     }
 
+    /** Returns the hexadecimal SHA-1 ID of this Commit. */
     public String getSHA() {
-        byte[] combyte = Utils.serialize(this);
-        return Utils.sha1(combyte);
+        return this.id.name();
     }
 
-    public ArrayList<File> getFiles() {
-        String[] blobList = blobs.keySet().toArray(new String[blobs.size()]);
-        ArrayList<File> rList = new ArrayList<>();
-        for (String s : blobList) {
-            File f = Utils.join(Repo.BLOBPATH, s);
-            rList.add(f);
-        }
-        return rList;
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Commit && ((Commit) obj).id.equals(id);
     }
 
-    public boolean getMerge() {
-        return this.isMerge;
+    @Override
+    public int hashCode() {
+        return id.hashCode();
     }
 
-    public void setMerge() {
-        isMerge = true;
+    public boolean getMerge() {
+        return this.isMerge;
     }
 }
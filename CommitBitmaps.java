@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/** Reachability bitmaps over the commits of a CommitGraph.  Each commit
+ *  of the graph has a bit, and the set of commits reachable from a
+ *  commit (itself included) is a bitmap with their bits set, so asking
+ *  whether one commit is an ancestor of another tests one bit, and
+ *  "reachable from A but not from B" is a single AND NOT.
+ *
+ *  Bits are numbered by rank in order of increasing generation (then
+ *  time), so the ancestors of a commit mostly have low, contiguous bits,
+ *  and the bitmaps compress to a few words.  Bitmaps are stored only for
+ *  selected commits: every SPACING-th in that order, and the tips given
+ *  when the file is written.  The bitmap of any other commit is built by
+ *  walking back from it only as far as commits with stored bitmaps and
+ *  ORing those in.
+ *
+ *  The file starts with the magic "CBMP", a version, the checksum of the
+ *  commit graph it describes and its commit count N, followed by N
+ *  4-byte graph positions, that of the commit with each bit in order.
+ *  Then comes the number of stored bitmaps, and each one as the graph
+ *  position of its commit, its length in 8-byte words and those words
+ *  compressed as described at encode.  The SHA-1 of everything before it
+ *  ends the file.
+ *  @author Nithish Rajan
+ */
+class CommitBitmaps {
+
+    /** Gap, in bits, between commits given stored bitmaps. */
+    static final int SPACING = 64;
+
+    /** Bitmaps over GRAPH, whose Kth bit is that of the commit at graph
+     *  position ORDER[K], with the compressed bitmaps of STORED keyed by
+     *  graph position. */
+    private CommitBitmaps(CommitGraph graph, int[] order,
+                          HashMap<Integer, long[]> stored) {
+        _graph = graph;
+        _order = order;
+        _bits = new int[order.length];
+        for (int k = 0; k < order.length; k += 1) {
+            _bits[order[k]] = k;
+        }
+        _stored = stored;
+    }
+
+    /** Returns the bitmaps in FILE, or null if FILE is missing or does not
+     *  describe GRAPH, which may be null. */
+    static CommitBitmaps read(File file, CommitGraph graph) {
+        if (graph == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            byte[] checksum = new byte[ObjectId.LENGTH];
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            in.get(checksum);
+            if (!ObjectId.fromRaw(checksum, 0).equals(graph.checksum())
+                || in.getInt() != graph.size()) {
+                return null;
+            }
+            int[] order = new int[graph.size()];
+            for (int k = 0; k < order.length; k += 1) {
+                order[k] = in.getInt();
+            }
+            HashMap<Integer, long[]> stored = new HashMap<>();
+            for (int count = in.getInt(); count > 0; count -= 1) {
+                int pos = in.getInt();
+                long[] words = new long[in.getInt()];
+                for (int i = 0; i < words.length; i += 1) {
+                    words[i] = in.getLong();
+                }
+                stored.put(pos, words);
+            }
+            return new CommitBitmaps(graph, order, stored);
+        } catch (IOException | RuntimeException excp) {
+            return null;
+        }
+    }
+
+    /** Writes to FILE bitmaps over GRAPH, storing those of the commits
+     *  at graph positions TIPS among others. */
+    static void write(File file, CommitGraph graph, Collection<Integer> tips) {
+        Integer[] sorted = new Integer[graph.size()];
+        for (int k = 0; k < sorted.length; k += 1) {
+            sorted[k] = k;
+        }
+        Arrays.sort(sorted, Comparator.comparingInt(graph::generation)
+                    .thenComparingLong(graph::time));
+        int[] order = new int[sorted.length];
+        for (int k = 0; k < order.length; k += 1) {
+            order[k] = sorted[k];
+        }
+        CommitBitmaps result =
+            new CommitBitmaps(graph, order, new HashMap<>());
+        BitSet selected = new BitSet();
+        for (int k = SPACING - 1; k < order.length; k += SPACING) {
+            selected.set(k);
+        }
+        for (int pos : tips) {
+            selected.set(result._bits[pos]);
+        }
+        for (int k = selected.nextSetBit(0); k >= 0;
+             k = selected.nextSetBit(k + 1)) {
+            result._stored.put(order[k], encode(result.reach(order[k])));
+        }
+        result.writeTo(file);
+    }
+
+    /** Writes these bitmaps to FILE. */
+    private void writeTo(File file) {
+        try (LockFile lock = new LockFile(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(lock.output()));
+            DataOutputStream body =
+                new DataOutputStream(new DigestOutputStream(out, md));
+            body.writeInt(MAGIC);
+            body.writeInt(VERSION);
+            body.write(_graph.checksum().toRaw());
+            body.writeInt(_order.length);
+            for (int pos : _order) {
+                body.writeInt(pos);
+            }
+            body.writeInt(_stored.size());
+            for (int k = 0; k < _order.length; k += 1) {
+                long[] words = _stored.get(_order[k]);
+                if (words != null) {
+                    body.writeInt(_order[k]);
+                    body.writeInt(words.length);
+                    for (long word : words) {
+                        body.writeLong(word);
+                    }
+                }
+            }
+            body.flush();
+            out.write(md.digest());
+            out.flush();
+            lock.commit();
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the bit of the commit at graph position POS. */
+    int bit(int pos) {
+        return _bits[pos];
+    }
+
+    /** Returns the graph position of the commit with bit K. */
+    int position(int k) {
+        return _order[k];
+    }
+
+    /** Returns the bitmap of the commits reachable from the commit at
+     *  graph position POS. */
+    BitSet reach(int pos) {
+        BitSet result = new BitSet(_order.length);
+        addReach(pos, result);
+        return result;
+    }
+
+    /** Adds to RESULT the commits reachable from the commit at graph
+     *  position POS, walking back only as far as commits already in
+     *  RESULT or with stored bitmaps. */
+    void addReach(int pos, BitSet result) {
+        ArrayDeque<Integer> todo = new ArrayDeque<>();
+        todo.push(pos);
+        while (!todo.isEmpty()) {
+            int p = todo.pop();
+            if (result.get(_bits[p])) {
+                continue;
+            }
+            long[] stored = _stored.get(p);
+            if (stored != null) {
+                result.or(decode(stored));
+                continue;
+            }
+            result.set(_bits[p]);
+            for (int which = 0; which < 2; which += 1) {
+                int parent = _graph.parent(p, which);
+                if (parent != CommitGraph.NONE) {
+                    todo.push(parent);
+                }
+            }
+        }
+    }
+
+    /** Returns BITS compressed as a sequence of runs.  The words of the
+     *  bitmap are grouped into runs of "clean" words (all zeros or all
+     *  ones) each followed by a number of "literal" words, which are
+     *  copied.  Each group is written as a marker word, holding the value
+     *  of the clean bits in bit 63, the number of clean words in bits 32
+     *  to 62 and the number of literal words in bits 0 to 31, followed by
+     *  the literal words. */
+    static long[] encode(BitSet bits) {
+        long[] words = bits.toLongArray();
+        long[] out = new long[words.length + words.length / 2 + 2];
+        int n = 0;
+        int i = 0;
+        while (i < words.length) {
+            long clean = words[i] == -1L ? -1L : 0L;
+            int run = 0;
+            while (i < words.length && words[i] == clean && run < MAX_RUN) {
+                run += 1;
+                i += 1;
+            }
+            int start = i;
+            while (i < words.length && words[i] != 0L && words[i] != -1L
+                   && i - start < MAX_RUN) {
+                i += 1;
+            }
+            if (n + 1 + i - start > out.length) {
+                out = Arrays.copyOf(out, 2 * out.length + i - start);
+            }
+            out[n] = (clean & Long.MIN_VALUE) | ((long) run << 32)
+                | (i - start);
+            System.arraycopy(words, start, out, n + 1, i - start);
+            n += 1 + i - start;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Returns the bitmap compressed in WORDS by encode. */
+    static BitSet decode(long[] words) {
+        int length = 0;
+        for (int i = 0; i < words.length; i += 1 + (int) words[i]) {
+            length += (int) (words[i] >>> 32 & MAX_RUN) + (int) words[i];
+        }
+        long[] result = new long[length];
+        int n = 0;
+        for (int i = 0; i < words.length; i += 1 + (int) words[i]) {
+            int run = (int) (words[i] >>> 32 & MAX_RUN);
+            int literals = (int) words[i];
+            if (words[i] < 0) {
+                Arrays.fill(result, n, n + run, -1L);
+            }
+            n += run;
+            System.arraycopy(words, i + 1, result, n, literals);
+            n += literals;
+        }
+        return BitSet.valueOf(result);
+    }
+
+    /** Magic number beginning a bitmap file ("CBMP"). */
+    private static final int MAGIC = 0x43424d50;
+    /** Version of the format. */
+    private static final int VERSION = 1;
+    /** Largest count of clean or literal words in one marker. */
+    private static final int MAX_RUN = Integer.MAX_VALUE;
+
+    /** The commit graph whose commits the bits stand for. */
+    private final CommitGraph _graph;
+    /** Graph positions of the commits, by bit. */
+    private final int[] _order;
+    /** Bits of the commits, by graph position. */
+    private final int[] _bits;
+    /** Compressed bitmaps of the selected commits, by graph position. */
+    private final HashMap<Integer, long[]> _stored;
+}
@@ -0,0 +1,363 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/** A read-only file describing the shape of history, so that walks over
+ *  it need not read commits.  For every commit reachable from the
+ *  branches when it was written, it records the positions of its parents
+ *  in the file, its commit time, and its generation number: 1 for a
+ *  commit without parents, and otherwise one more than the largest
+ *  generation of its parents.  A commit's ancestors all have smaller
+ *  generations than it, so a walk visiting commits in decreasing order of
+ *  generation sees every commit after all of its descendants.
+ *
+ *  For each commit it also keeps a Bloom filter of the paths the commit
+ *  changed relative to its first parent (or, for the initial commit, all
+ *  of its paths), each file's directories included.  A filter answers
+ *  "did this commit change PATH?" with either "no", which is certain, or
+ *  "maybe", so a walk looking for the commits that changed a path need
+ *  read and compare the trees of only the few commits it cannot rule
+ *  out.  Each path sets HASHES bits of a filter of BITS_PER_PATH bits per
+ *  path.  A commit changing more than MAX_CHANGED paths gets an empty
+ *  filter, which answers "maybe" for every path.
+ *
+ *  The file starts with the magic "CGPH", a version and the commit count
+ *  N, followed by a fan-out table as in a pack index (see PackFile) and
+ *  the N 20-byte commit IDs in ascending order.  N records follow, the
+ *  record at position K describing the Kth ID: the positions of its first
+ *  and second parents (-1 if absent) and its generation, each a 4-byte
+ *  integer, then its commit time in seconds as an 8-byte integer.  Then
+ *  come N 4-byte integers, the Kth the total length of the filters of
+ *  the first K + 1 commits, and those filters in order.  The SHA-1 of
+ *  everything before it ends the file.  The file is
+ *  memory-mapped.  Commits made since it was written are simply absent
+ *  from it.
+ *  @author Nithish Rajan
+ */
+class CommitGraph {
+
+    /** Position recorded for a missing parent. */
+    static final int NONE = -1;
+
+    /** The commit graph mapped in BUF. */
+    private CommitGraph(MappedByteBuffer buf) {
+        _buf = buf;
+        _count = buf.getInt(8);
+        _recordsStart = IDS_START + _count * ObjectId.LENGTH;
+        _filtersStart = _recordsStart + _count * RECORD_SIZE;
+        _dataStart = _filtersStart + 4 * _count;
+    }
+
+    /** Returns the commit graph in FILE, or null if FILE does not exist
+     *  or holds no valid graph. */
+    static CommitGraph read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                 StandardOpenOption.READ)) {
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < IDS_START || buf.getInt(0) != MAGIC
+                || buf.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = buf.getInt(8);
+            long filters = IDS_START
+                + (long) count * (ObjectId.LENGTH + RECORD_SIZE);
+            long data = filters + 4L * count;
+            if (buf.limit() < data + ObjectId.LENGTH
+                || buf.limit() != data + ObjectId.LENGTH + (count == 0 ? 0
+                    : buf.getInt((int) data - 4))) {
+                return null;
+            }
+            return new CommitGraph(buf);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Writes to FILE the graph of all commits in COMMITS reachable from
+     *  TIPS, whose trees are in TREES. */
+    static void write(File file, CommitStore commits, TreeStore trees,
+                      Collection<ObjectId> tips) {
+        HashMap<ObjectId, ObjectId[]> parents = new HashMap<>();
+        HashMap<ObjectId, ObjectId> treeOf = new HashMap<>();
+        HashMap<ObjectId, Long> timeOf = new HashMap<>();
+        ArrayDeque<ObjectId> todo = new ArrayDeque<>(tips);
+        while (!todo.isEmpty()) {
+            ObjectId id = todo.pop();
+            if (id == null || parents.containsKey(id)) {
+                continue;
+            }
+            Commit commit = commits.get(id);
+            ObjectId[] ps = CommitStore.parentsOf(commit);
+            parents.put(id, ps);
+            treeOf.put(id, commit.getTree());
+            timeOf.put(id, commit.getTime());
+            for (ObjectId p : ps) {
+                todo.push(p);
+            }
+        }
+        ArrayList<ObjectId> ids = new ArrayList<>(parents.keySet());
+        ids.sort(null);
+        HashMap<ObjectId, Integer> positions = new HashMap<>();
+        for (int k = 0; k < ids.size(); k += 1) {
+            positions.put(ids.get(k), k);
+        }
+        int[] generations = generations(ids, parents, positions);
+        try (LockFile lock = new LockFile(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(lock.output()));
+            DataOutputStream body =
+                new DataOutputStream(new DigestOutputStream(out, md));
+            body.writeInt(MAGIC);
+            body.writeInt(VERSION);
+            body.writeInt(ids.size());
+            int k = 0;
+            for (int b = 0; b < FANOUT; b += 1) {
+                while (k < ids.size() && ids.get(k).firstByte() <= b) {
+                    k += 1;
+                }
+                body.writeInt(k);
+            }
+            for (ObjectId id : ids) {
+                body.write(id.toRaw());
+            }
+            for (int i = 0; i < ids.size(); i += 1) {
+                ObjectId[] ps = parents.get(ids.get(i));
+                body.writeInt(ps.length > 0 ? positions.get(ps[0]) : NONE);
+                body.writeInt(ps.length > 1 ? positions.get(ps[1]) : NONE);
+                body.writeInt(generations[i]);
+                body.writeLong(timeOf.get(ids.get(i)));
+            }
+            ArrayList<byte[]> filters = new ArrayList<>();
+            int total = 0;
+            for (ObjectId id : ids) {
+                ObjectId[] ps = parents.get(id);
+                ObjectId parentTree = ps.length == 0 ? null
+                    : treeOf.get(ps[0]);
+                byte[] filter =
+                    filter(trees.diff(parentTree, treeOf.get(id)).keySet());
+                filters.add(filter);
+                total += filter.length;
+                body.writeInt(total);
+            }
+            for (byte[] filter : filters) {
+                body.write(filter);
+            }
+            body.flush();
+            out.write(md.digest());
+            out.flush();
+            lock.commit();
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the generation numbers of the commits IDS, in the same
+     *  order, given the PARENTS of each and the POSITIONS of each in
+     *  IDS.  Commits are finished in an explicit depth-first order, so
+     *  long histories cannot overflow the stack. */
+    private static int[] generations(ArrayList<ObjectId> ids,
+                                     HashMap<ObjectId, ObjectId[]> parents,
+                                     HashMap<ObjectId, Integer> positions) {
+        int[] result = new int[ids.size()];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (int start = 0; start < ids.size(); start += 1) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                int k = stack.peek();
+                if (result[k] != 0) {
+                    stack.pop();
+                    continue;
+                }
+                int max = 0;
+                boolean ready = true;
+                for (ObjectId p : parents.get(ids.get(k))) {
+                    int pk = positions.get(p);
+                    if (result[pk] == 0) {
+                        stack.push(pk);
+                        ready = false;
+                    }
+                    max = Math.max(max, result[pk]);
+                }
+                if (ready) {
+                    result[k] = max + 1;
+                    stack.pop();
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the changed-path filter of the files FILES, which must not
+     *  end in '/', and of the directories holding them. */
+    private static byte[] filter(Collection<String> files) {
+        TreeSet<String> paths = new TreeSet<>();
+        for (String file : files) {
+            for (int slash = file.indexOf('/'); slash != -1;
+                 slash = file.indexOf('/', slash + 1)) {
+                paths.add(file.substring(0, slash));
+            }
+            paths.add(file);
+        }
+        if (paths.size() > MAX_CHANGED) {
+            return new byte[0];
+        }
+        byte[] result =
+            new byte[Math.max(1, (paths.size() * BITS_PER_PATH + 7) / 8)];
+        for (String path : paths) {
+            long key = pathKey(path);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = bit(key, i, 8 * result.length);
+                result[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the key of PATH (relative to the working directory, with
+     *  no trailing '/') from which its bits in changed-path filters are
+     *  found. */
+    static long pathKey(String path) {
+        ObjectId hash = Utils.sha1Id(path.getBytes(StandardCharsets.UTF_8));
+        return ((long) hash.word(0) << 32) | (hash.word(1) & 0xffffffffL);
+    }
+
+    /** Returns the Ith of the bits set for the path with key KEY in a
+     *  filter of BITS bits.  The bits are spread by double hashing. */
+    private static int bit(long key, int i, int bits) {
+        int h1 = (int) (key >>> 32), h2 = (int) key | 1;
+        return Integer.remainderUnsigned(h1 + i * h2, bits);
+    }
+
+    /** Returns false if the commit at position K certainly did not change
+     *  the path with key KEY (see pathKey) relative to its first parent,
+     *  and true if it may have. */
+    boolean mayHaveChanged(int k, long key) {
+        int start = k == 0 ? 0 : _buf.getInt(_filtersStart + 4 * k - 4);
+        int end = _buf.getInt(_filtersStart + 4 * k);
+        for (int i = 0; i < HASHES && end > start; i += 1) {
+            int bit = bit(key, i, 8 * (end - start));
+            if ((_buf.get(_dataStart + start + (bit >>> 3))
+                 & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the position of commit ID, or -1 if it is not in this
+     *  graph. */
+    int find(ObjectId id) {
+        int first = id.firstByte();
+        int lo = first == 0 ? 0 : _buf.getInt(FANOUT_START + 4 * first - 4);
+        int hi = _buf.getInt(FANOUT_START + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, id);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the ID at position K with ID, returning a negative, zero
+     *  or positive result as the former is less than, equal to or
+     *  greater than the latter. */
+    private int compare(int k, ObjectId id) {
+        int base = IDS_START + k * ObjectId.LENGTH;
+        for (int j = 0; j < 5; j += 1) {
+            int c = Integer.compareUnsigned(_buf.getInt(base + 4 * j),
+                                            id.word(j));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the checksum ending the file of this graph. */
+    ObjectId checksum() {
+        return ObjectId.fromBuffer(_buf, _buf.limit() - ObjectId.LENGTH);
+    }
+
+    /** Returns the number of commits in this graph. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the ID of the commit at position K. */
+    ObjectId id(int k) {
+        return ObjectId.fromBuffer(_buf, IDS_START + k * ObjectId.LENGTH);
+    }
+
+    /** Returns the position of parent WHICH (0 or 1) of the commit at
+     *  position K, or NONE. */
+    int parent(int k, int which) {
+        return _buf.getInt(_recordsStart + k * RECORD_SIZE + 4 * which);
+    }
+
+    /** Returns the generation number of the commit at position K. */
+    int generation(int k) {
+        return _buf.getInt(_recordsStart + k * RECORD_SIZE + 8);
+    }
+
+    /** Returns the commit time of the commit at position K, in seconds
+     *  since the epoch. */
+    long time(int k) {
+        return _buf.getLong(_recordsStart + k * RECORD_SIZE + 12);
+    }
+
+    /** Magic number beginning a commit graph ("CGPH"). */
+    private static final int MAGIC = 0x43475048;
+    /** Version of the format. */
+    private static final int VERSION = 2;
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+    /** Offset of the fan-out table. */
+    private static final int FANOUT_START = 12;
+    /** Offset of the first ID. */
+    private static final int IDS_START = FANOUT_START + 4 * FANOUT;
+    /** Size of the record of one commit. */
+    private static final int RECORD_SIZE = 20;
+    /** Bits of a changed-path filter per path. */
+    private static final int BITS_PER_PATH = 10;
+    /** Bits set in a changed-path filter for each path. */
+    private static final int HASHES = 7;
+    /** Most paths a commit may change and still get a filter. */
+    private static final int MAX_CHANGED = 512;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _buf;
+    /** Number of commits. */
+    private final int _count;
+    /** Offset of the first record. */
+    private final int _recordsStart;
+    /** Offset of the total lengths of the changed-path filters. */
+    private final int _filtersStart;
+    /** Offset of the first changed-path filter. */
+    private final int _dataStart;
+}
@@ -0,0 +1,409 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/** Reads and writes the commits of a repository, loading each commit
+ *  only when it is first asked for and keeping the most recently used
+ *  in a cache shared by every CommitStore.  Commits are kept as objects in an
+ *  ObjectStore.  Since commits refer to their parents
+ *  by SHA-1 ID, walking history through a CommitStore touches only the
+ *  commits actually visited.  Given a CommitGraph, walks that need only
+ *  the parents, times and generation numbers of commits take them from
+ *  it instead, reading only the commits made since it was written, and
+ *  with CommitBitmaps over that graph, questions of reachability are
+ *  answered mostly by operations on bitmaps.
+ *  @author Nithish Rajan
+ */
+class CommitStore {
+
+    /** A store for the commits kept as objects in OBJECTS. */
+    CommitStore(ObjectStore objects) {
+        _objects = objects;
+    }
+
+    /** Uses GRAPH, which may be null, for walks over history. */
+    void setGraph(CommitGraph graph) {
+        _graph = graph;
+    }
+
+    /** Uses the bitmaps over the commit graph in FILE, read when first
+     *  needed, for questions of reachability. */
+    void setBitmaps(File file) {
+        _bitmapFile = file;
+    }
+
+    /** Returns the reachability bitmaps, or null if there are none. */
+    private CommitBitmaps bitmaps() {
+        if (_bitmaps == null && _bitmapFile != null) {
+            _bitmaps = CommitBitmaps.read(_bitmapFile, _graph);
+            _bitmapFile = null;
+        }
+        return _bitmaps;
+    }
+
+    /** Returns the objects holding the serialized commits. */
+    ObjectStore objects() {
+        return _objects;
+    }
+
+    /** Returns the commit with SHA-1 ID, or null if ID is null or names
+     *  no commit in this store.  Commits are read through CACHE. */
+    Commit get(ObjectId id) {
+        if (id == null) {
+            return null;
+        }
+        Commit result = CACHE.get(id);
+        if (result == null) {
+            if (!_objects.has(id)) {
+                return null;
+            }
+            result = Utils.readObject(_objects.open(id), Commit.class);
+            CACHE.put(id, result);
+        }
+        return result;
+    }
+
+    /** Returns the commit with SHA-1 ID, read afresh and not kept, so
+     *  that scanning many commits does not fill memory with them.  Unlike
+     *  get, it may be called from several threads at once. */
+    Commit load(ObjectId id) {
+        return Utils.readObject(_objects.open(id), Commit.class);
+    }
+
+    /** Returns false iff the commit graph shows that commit ID was made
+     *  before SINCE, in seconds since the epoch. */
+    boolean maybeSince(ObjectId id, long since) {
+        int k = _graph == null ? -1 : _graph.find(id);
+        return k == -1 || _graph.time(k) >= since;
+    }
+
+    /** Returns true iff a commit with SHA-1 ID is in this store. */
+    boolean contains(ObjectId id) {
+        return _objects.has(id);
+    }
+
+    /** Returns the IDs of all commits whose IDs start with PREFIX, which
+     *  must be at least two characters long, in lexicographic order. */
+    List<ObjectId> withPrefix(String prefix) {
+        return _objects.withPrefix(prefix);
+    }
+
+    /** Returns the ID of the commit whose ID is NAME, or starts with NAME
+     *  if it has at least MIN_ABBREV hexadecimal digits, in either case,
+     *  or null if there is no such commit.  Throws a GitletException if
+     *  more than one commit starts with NAME.  Packed commits are found
+     *  by binary search in the pack indexes, and loose ones by listing
+     *  only the directory for their first two digits. */
+    ObjectId resolve(String name) {
+        String prefix = name.toLowerCase(Locale.ROOT);
+        if (ObjectId.isHex(prefix)) {
+            ObjectId id = ObjectId.fromHex(prefix);
+            return contains(id) ? id : null;
+        } else if (prefix.length() < MIN_ABBREV
+                   || !ObjectId.isHexPrefix(prefix)) {
+            return null;
+        }
+        List<ObjectId> ids = withPrefix(prefix);
+        if (ids.size() > 1) {
+            throw new GitletException("Commit id " + name + " is ambiguous; "
+                                      + "it matches " + ids.size()
+                                      + " commits.");
+        }
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /** Returns the IDs of all commits in lexicographic order. */
+    List<ObjectId> ids() {
+        return _objects.ids();
+    }
+
+    /** Writes COMMIT to this store and returns its SHA-1 ID. */
+    ObjectId put(Commit commit) {
+        ObjectId id = commit.getId();
+        _objects.write(id, ObjectStore.COMMIT, Utils.serialize(commit));
+        CACHE.put(id, commit);
+        return id;
+    }
+
+    /** Returns the IDs of the parents of COMMIT, none for the initial
+     *  commit and two for a merge. */
+    static ObjectId[] parentsOf(Commit commit) {
+        if (commit.getMerge()) {
+            return commit.getParent2();
+        } else if (commit.getParent() == null) {
+            return new ObjectId[0];
+        } else {
+            return new ObjectId[] { commit.getParent() };
+        }
+    }
+
+    /** Returns true iff commit A is B or one of its ancestors. */
+    boolean isAncestor(ObjectId a, ObjectId b) {
+        return reachable(List.of(b)).contains(a);
+    }
+
+    /** Returns the commits reachable from TIPS.  The walk from each tip
+     *  stops at commits of the commit graph, whose reachable sets come
+     *  from the bitmaps instead. */
+    Reach reachable(Collection<ObjectId> tips) {
+        CommitBitmaps bitmaps = bitmaps();
+        Reach result = new Reach(new BitSet(), new HashSet<>());
+        ArrayDeque<ObjectId> todo = new ArrayDeque<>(tips);
+        while (!todo.isEmpty()) {
+            ObjectId id = todo.pop();
+            if (id == null || result._others.contains(id)) {
+                continue;
+            }
+            int k = bitmaps == null ? -1 : _graph.find(id);
+            if (k != -1) {
+                bitmaps.addReach(k, result._bits);
+                continue;
+            }
+            result._others.add(id);
+            for (ObjectId p : parents(id)) {
+                todo.push(p);
+            }
+        }
+        return result;
+    }
+
+    /** A set of commits: those of the commit graph as bits of its
+     *  bitmaps, and any others by ID. */
+    final class Reach {
+
+        /** The commits with BITS in the bitmaps and the commits OTHERS. */
+        private Reach(BitSet bits, HashSet<ObjectId> others) {
+            _bits = bits;
+            _others = others;
+        }
+
+        /** Returns true iff commit ID is in this set. */
+        boolean contains(ObjectId id) {
+            int k = _bits.isEmpty() ? -1 : _graph.find(id);
+            if (k != -1) {
+                return _bits.get(bitmaps().bit(k));
+            }
+            return _others.contains(id);
+        }
+
+        /** Returns the commits in this set but not in OTHER. */
+        Reach andNot(Reach other) {
+            BitSet bits = (BitSet) _bits.clone();
+            bits.andNot(other._bits);
+            HashSet<ObjectId> others = new HashSet<>(_others);
+            others.removeAll(other._others);
+            return new Reach(bits, others);
+        }
+
+        /** Returns the IDs of the commits in this set. */
+        List<ObjectId> ids() {
+            ArrayList<ObjectId> result = new ArrayList<>(_others);
+            for (int k = _bits.nextSetBit(0); k >= 0;
+                 k = _bits.nextSetBit(k + 1)) {
+                result.add(_graph.id(bitmaps().position(k)));
+            }
+            return result;
+        }
+
+        /** Bits of the graph's commits in this set. */
+        private final BitSet _bits;
+        /** The other commits in this set. */
+        private final HashSet<ObjectId> _others;
+    }
+
+    /** Returns the ID of a best common ancestor of commits A and B: one
+     *  that is not itself an ancestor of another common ancestor.
+     *  Returns null if they have none.
+     *
+     *  Commits are visited in decreasing order of generation, each marked
+     *  with the tips (A, B or both) it was reached from; a commit is
+     *  visited only after all its descendants that the walk reaches, so
+     *  its marks are final when it is visited.  The first commit found
+     *  reachable from both is therefore a best common ancestor, and the
+     *  walk stops there, never going further back in history. */
+    ObjectId mergeBase(ObjectId a, ObjectId b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        HashMap<ObjectId, Integer> marks = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>();
+        marks.put(a, FROM_A);
+        marks.put(b, FROM_B);
+        queue.add(node(a));
+        queue.add(node(b));
+        while (!queue.isEmpty()) {
+            Node next = queue.poll();
+            int mark = marks.get(next.id);
+            if (mark == (FROM_A | FROM_B)) {
+                return next.id;
+            }
+            for (ObjectId p : parents(next.id)) {
+                Integer old = marks.get(p);
+                if (old == null) {
+                    marks.put(p, mark);
+                    queue.add(node(p));
+                } else if ((old | mark) != old) {
+                    marks.put(p, old | mark);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the IDs of the parents of commit ID. */
+    ObjectId[] parents(ObjectId id) {
+        int k = _graph == null ? -1 : _graph.find(id);
+        if (k == -1) {
+            return parentsOf(get(id));
+        }
+        int p0 = _graph.parent(k, 0), p1 = _graph.parent(k, 1);
+        if (p0 == CommitGraph.NONE) {
+            return new ObjectId[0];
+        } else if (p1 == CommitGraph.NONE) {
+            return new ObjectId[] { _graph.id(p0) };
+        } else {
+            return new ObjectId[] { _graph.id(p0), _graph.id(p1) };
+        }
+    }
+
+    /** Returns the number of commits reachable from commit TIP that the
+     *  commit graph lacks, counting no further than LIMIT.  Since the
+     *  graph holds every ancestor of each commit it holds, only commits
+     *  made since it was written are read. */
+    int missingFromGraph(ObjectId tip, int limit) {
+        HashSet<ObjectId> missing = new HashSet<>();
+        ArrayDeque<ObjectId> todo = new ArrayDeque<>();
+        todo.push(tip);
+        while (!todo.isEmpty() && missing.size() < limit) {
+            ObjectId id = todo.pop();
+            if ((_graph != null && _graph.find(id) != -1)
+                || !missing.add(id)) {
+                continue;
+            }
+            for (ObjectId p : parentsOf(get(id))) {
+                todo.push(p);
+            }
+        }
+        return missing.size();
+    }
+
+    /** Returns the generation number of commit ID (see CommitGraph).
+     *  Generations of commits missing from the graph are computed from
+     *  their parents' and remembered, working back only as far as commits
+     *  in the graph, without recursion. */
+    int generation(ObjectId id) {
+        ArrayDeque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            ObjectId top = stack.peek();
+            if (knownGeneration(top) != 0) {
+                stack.pop();
+                continue;
+            }
+            int max = 0;
+            boolean ready = true;
+            for (ObjectId p : parents(top)) {
+                int g = knownGeneration(p);
+                if (g == 0) {
+                    stack.push(p);
+                    ready = false;
+                }
+                max = Math.max(max, g);
+            }
+            if (ready) {
+                _generations.put(top, max + 1);
+                stack.pop();
+            }
+        }
+        return knownGeneration(id);
+    }
+
+    /** Returns the generation of commit ID if the graph has it or it has
+     *  been computed, and otherwise 0. */
+    private int knownGeneration(ObjectId id) {
+        int k = _graph == null ? -1 : _graph.find(id);
+        if (k != -1) {
+            return _graph.generation(k);
+        }
+        return _generations.getOrDefault(id, 0);
+    }
+
+    /** Returns false if the commit graph shows that commit ID did not
+     *  change the path with key KEY (see CommitGraph.pathKey) relative to
+     *  its first parent, and true if it may have. */
+    boolean mayHaveChanged(ObjectId id, long key) {
+        int k = _graph == null ? -1 : _graph.find(id);
+        return k == -1 || _graph.mayHaveChanged(k, key);
+    }
+
+    /** Returns the time of commit ID in seconds since the epoch. */
+    long time(ObjectId id) {
+        int k = _graph == null ? -1 : _graph.find(id);
+        return k == -1 ? get(id).getTime() : _graph.time(k);
+    }
+
+    /** Returns the walk node for commit ID. */
+    private Node node(ObjectId id) {
+        return new Node(id, generation(id), time(id));
+    }
+
+    /** A commit waiting to be visited by a walk, ordered before commits
+     *  of lower generation, and then before older commits. */
+    private static final class Node implements Comparable<Node> {
+
+        /** The node for commit ID, of generation GENERATION made at
+         *  TIME. */
+        Node(ObjectId id, int generation, long time) {
+            this.id = id;
+            this.generation = generation;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            if (generation != other.generation) {
+                return Integer.compare(other.generation, generation);
+            }
+            return Long.compare(other.time, time);
+        }
+
+        /** The commit. */
+        private final ObjectId id;
+        /** Its generation. */
+        private final int generation;
+        /** Its commit time. */
+        private final long time;
+    }
+
+    /** Commits read or written in this process, by ID. */
+    static final ObjectCache<Commit> CACHE =
+        new ObjectCache<>(1 << 13, c -> 1);
+
+    /** Fewest digits of an abbreviated commit ID. */
+    static final int MIN_ABBREV = 4;
+
+    /** Mark of a commit reachable from the first tip of a walk. */
+    private static final int FROM_A = 1;
+    /** Mark of a commit reachable from the second tip of a walk. */
+    private static final int FROM_B = 2;
+
+    /** Objects holding the serialized commits. */
+    private final ObjectStore _objects;
+    /** The commit graph, or null. */
+    private CommitGraph _graph;
+    /** File of the bitmaps over _graph, if not yet read. */
+    private File _bitmapFile;
+    /** The bitmaps over _graph, or null. */
+    private CommitBitmaps _bitmaps;
+    /** Generations computed for commits missing from the graph. */
+    private final HashMap<ObjectId, Integer> _generations = new HashMap<>();
+}
@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Delta compression of one byte sequence (the target) against another
+ *  (the base).  A delta is a header giving the lengths of the base and
+ *  target as variable-length integers, followed by instructions:
+ *  a byte 0x80 followed by an offset and a length (as variable-length
+ *  integers) copies that range of the base; a byte N in 1..127 inserts
+ *  the N literal bytes that follow it.
+ *  @author Nithish Rajan
+ */
+class Delta {
+
+    /** Returns a delta converting BASE into TARGET, or null if the delta
+     *  would not be smaller than MAXSIZE bytes. */
+    static byte[] create(byte[] base, byte[] target, int maxSize) {
+        if (base.length < BLOCK || target.length < BLOCK) {
+            return null;
+        }
+        int[] heads = new int[tableSize(base.length)];
+        int[] next = new int[base.length / BLOCK];
+        Arrays.fill(heads, -1);
+        for (int b = 0; b < next.length; b += 1) {
+            int slot = hash(base, b * BLOCK) & (heads.length - 1);
+            next[b] = heads[slot];
+            heads[slot] = b;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int literalStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int bestOff = 0, bestLen = 0;
+            int slot = hash(target, i) & (heads.length - 1);
+            int tries = 0;
+            for (int b = heads[slot]; b != -1 && tries < MAX_TRIES;
+                 b = next[b], tries += 1) {
+                int off = b * BLOCK;
+                int len = 0;
+                while (off + len < base.length && i + len < target.length
+                       && base[off + len] == target[i + len]) {
+                    len += 1;
+                }
+                if (len > bestLen) {
+                    bestOff = off;
+                    bestLen = len;
+                }
+            }
+            if (bestLen < BLOCK) {
+                i += 1;
+                continue;
+            }
+            while (bestOff > 0 && i > literalStart
+                   && base[bestOff - 1] == target[i - 1]) {
+                bestOff -= 1;
+                bestLen += 1;
+                i -= 1;
+            }
+            writeLiterals(out, target, literalStart, i);
+            out.write(COPY);
+            writeVarint(out, bestOff);
+            writeVarint(out, bestLen);
+            i += bestLen;
+            literalStart = i;
+            if (out.size() >= maxSize) {
+                return null;
+            }
+        }
+        writeLiterals(out, target, literalStart, target.length);
+        return out.size() < maxSize ? out.toByteArray() : null;
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = { 0 };
+        int baseLength = (int) readVarint(delta, pos);
+        int resultLength = (int) readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta base mismatch");
+        }
+        byte[] result = new byte[resultLength];
+        int k = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if (op == COPY) {
+                int off = (int) readVarint(delta, pos);
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(base, off, result, k, len);
+                k += len;
+            } else {
+                System.arraycopy(delta, pos[0], result, k, op);
+                pos[0] += op;
+                k += op;
+            }
+        }
+        if (k != resultLength) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Writes V to OUT as a variable-length integer: seven bits per byte,
+     *  least significant first, with the high bit set on all but the last
+     *  byte. */
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while (v >= 0x80) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /** Returns the variable-length integer in BUF at POS[0], advancing
+     *  POS[0] past it. */
+    static long readVarint(byte[] buf, int[] pos) {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = buf[pos[0]] & 0xff;
+            pos[0] += 1;
+            v |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+    }
+
+    /** Writes insert instructions for TARGET[START .. END - 1] to OUT. */
+    private static void writeLiterals(ByteArrayOutputStream out,
+                                      byte[] target, int start, int end) {
+        while (start < end) {
+            int n = Math.min(end - start, MAX_INSERT);
+            out.write(n);
+            out.write(target, start, n);
+            start += n;
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of BUF starting at K. */
+    private static int hash(byte[] buf, int k) {
+        int h = 0;
+        for (int j = k; j < k + BLOCK; j += 1) {
+            h = h * 31 + buf[j];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns a power of two at least as large as the number of blocks
+     *  in a base of length N. */
+    private static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(n / BLOCK, 1)) * 2;
+    }
+
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+    /** Most candidate base blocks examined at any target position. */
+    private static final int MAX_TRIES = 64;
+    /** Instruction byte introducing a copy from the base. */
+    private static final int COPY = 0x80;
+    /** Largest number of literal bytes in one insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+}
@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+
+/** An index kept in a single file of the repository.  The file is
+ *  replaced through its LockFile, so a reader sees either the old index
+ *  or the new, and a command replacing the index while another does
+ *  fails.
+ *  @author Nithish Rajan
+ */
+class FileIndexStore implements IndexStore {
+
+    /** An index kept in FILE. */
+    FileIndexStore(File file) {
+        _file = file;
+    }
+
+    @Override
+    public byte[] read() {
+        try {
+            return Files.readAllBytes(_file.toPath());
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public long timestamp() {
+        return _file.exists() ? StagingArea.mtimeOf(_file) : 0;
+    }
+
+    @Override
+    public void replace(byte[] expected, byte[] contents) {
+        try (LockFile lock = new LockFile(_file)) {
+            if (!Arrays.equals(checksum(), expected)) {
+                throw new GitletException("The index was changed by "
+                                          + "another command.");
+            }
+            lock.write(contents);
+            lock.commit();
+        }
+    }
+
+    /** Returns the checksum ending the index file, or null if there is
+     *  no such file. */
+    private byte[] checksum() {
+        try (RandomAccessFile in = new RandomAccessFile(_file, "r")) {
+            byte[] result = new byte[CHECKSUM_SIZE];
+            in.seek(Math.max(0, in.length() - CHECKSUM_SIZE));
+            in.readFully(result);
+            return result;
+        } catch (FileNotFoundException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Size of the SHA-1 checksum ending the file. */
+    private static final int CHECKSUM_SIZE = 20;
+
+    /** File holding the index. */
+    private final File _file;
+}
@@ -0,0 +1,419 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** A file system monitor for a working directory.  Run as a daemon (the
+ *  fsmonitor command), it watches every directory of the working tree
+ *  through a WatchService and appends the path of each file or directory
+ *  that changes to a journal.  Other commands then ask it which paths
+ *  changed since a token they saved, and examine only those instead of
+ *  the whole tree.
+ *
+ *  The journal starts with a line naming its generation, which is new
+ *  each time the daemon starts or the journal is restarted for growing
+ *  too large; a token is a generation and an offset in the journal.
+ *  Events reach the daemon some time after the change, so to be sure the
+ *  journal covers every change made before it asks, a client creates a
+ *  cookie file in a directory the daemon also watches and waits for the
+ *  daemon to record it.  The daemon holds a lock on a file while it runs,
+ *  so a client can tell whether it is running at all.
+ *  @author Nithish Rajan
+ */
+class FsMonitor {
+
+    /** The paths that changed since a token, and the token to use next
+     *  time. */
+    static final class Changes {
+
+        /** Changes PATHS, leading to TOKEN. */
+        Changes(String token, TreeSet<String> paths) {
+            _token = token;
+            _paths = paths;
+        }
+
+        /** Returns the token marking the end of these changes. */
+        String token() {
+            return _token;
+        }
+
+        /** Returns the paths that changed, relative to the working
+         *  directory, or null if they are not known and every path must
+         *  be examined. */
+        TreeSet<String> paths() {
+            return _paths;
+        }
+
+        /** End of the changes. */
+        private final String _token;
+        /** Changed paths, or null. */
+        private final TreeSet<String> _paths;
+    }
+
+    /** A monitor for the working directory WORKDIR, keeping its journal
+     *  and other files in directory DIR. */
+    FsMonitor(File workDir, File dir) {
+        _workDir = workDir.toPath();
+        _dir = dir;
+        _lock = Utils.join(dir, "lock");
+        _journal = Utils.join(dir, "journal");
+        _cookies = Utils.join(dir, "cookies");
+    }
+
+    /** Returns the changes made since TOKEN (which may be null), or null
+     *  if no daemon is running.  Only the part of the journal after TOKEN
+     *  is read, and while waiting for the cookie only what was appended
+     *  since the last look, at intervals that double up to MAX_POLL. */
+    Changes changedSince(String token) {
+        if (!isRunning()) {
+            return null;
+        }
+        String cookie = UUID.randomUUID().toString();
+        File cookieFile = Utils.join(_cookies, cookie);
+        try (RandomAccessFile in = new RandomAccessFile(_journal, "r")) {
+            Files.createFile(cookieFile.toPath());
+            JournalReader reader = new JournalReader(in, token);
+            long deadline = System.currentTimeMillis() + COOKIE_WAIT;
+            long wait = 1;
+            while (true) {
+                Changes result = reader.read(cookie);
+                if (result != null) {
+                    return result;
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return null;
+                }
+                Thread.sleep(Math.min(wait, left));
+                wait = Math.min(2 * wait, MAX_POLL);
+            }
+        } catch (IOException | InterruptedException excp) {
+            return null;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** Reads a journal from a token on, each call reading only what has
+     *  been appended since the last. */
+    private static final class JournalReader {
+
+        /** A reader of the journal open as IN, starting after TOKEN. */
+        JournalReader(RandomAccessFile in, String token) {
+            _in = in;
+            _token = token;
+        }
+
+        /** Returns the changes since the token up to the line for
+         *  COOKIE, or null if that line is not there yet.  If the token
+         *  is from another generation, or cannot be read, or the journal
+         *  is restarted meanwhile, the paths are not known. */
+        Changes read(String cookie) throws IOException {
+            String generation = generation();
+            if (generation == null) {
+                return null;
+            } else if (!generation.equals(_generation)) {
+                _generation = generation;
+                _pos = _headerEnd;
+                _paths = null;
+                long offset = offsetOf(_token, generation);
+                if (offset >= _headerEnd && offset <= _in.length()) {
+                    _pos = offset;
+                    _paths = new TreeSet<>();
+                }
+                _token = null;
+            }
+            long length = _in.length();
+            if (length < _pos) {
+                _generation = null;
+                return null;
+            }
+            byte[] data = new byte[(int) (length - _pos)];
+            _in.seek(_pos);
+            _in.readFully(data);
+            for (int from = 0, next = nextLine(data, 0); next != -1;
+                 from = next, next = nextLine(data, from)) {
+                String line = line(data, from, next);
+                _pos += next - from;
+                if (line.equals(COOKIE + cookie)) {
+                    return new Changes(generation + ":" + _pos, _paths);
+                } else if (line.equals(OVERFLOW_MARK)) {
+                    _paths = null;
+                } else if (_paths != null && !line.startsWith(COOKIE)) {
+                    _paths.add(line);
+                }
+            }
+            return null;
+        }
+
+        /** Returns the generation named by the first line of the journal,
+         *  setting _headerEnd to the offset just past that line, or null
+         *  if the line is not all there yet. */
+        private String generation() throws IOException {
+            byte[] data = new byte[(int) Math.min(_in.length(), MAX_HEADER)];
+            _in.seek(0);
+            _in.readFully(data);
+            int end = nextLine(data, 0);
+            if (end == -1) {
+                return null;
+            }
+            String first = line(data, 0, end);
+            if (!first.startsWith(HEADER)) {
+                return null;
+            }
+            _headerEnd = end;
+            return first.substring(HEADER.length());
+        }
+
+        /** Returns the journal offset in TOKEN if it is a token of
+         *  GENERATION, and otherwise -1. */
+        private static long offsetOf(String token, String generation) {
+            if (token == null || !token.startsWith(generation + ":")) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(token.substring(generation.length()
+                                                      + 1));
+            } catch (NumberFormatException excp) {
+                return -1;
+            }
+        }
+
+        /** The open journal. */
+        private final RandomAccessFile _in;
+        /** The token to start from, until the first generation is read,
+         *  and then null. */
+        private String _token;
+        /** Generation being read, or null if not yet known. */
+        private String _generation;
+        /** Offset just past the first line of the journal. */
+        private int _headerEnd;
+        /** Offset of the first line not yet read. */
+        private long _pos;
+        /** Paths changed so far, or null if they are not known. */
+        private TreeSet<String> _paths;
+    }
+
+    /** Returns the offset just past the end of the line of DATA starting
+     *  at offset FROM, or -1 if that line is incomplete. */
+    private static int nextLine(byte[] data, int from) {
+        for (int i = from; i < data.length; i += 1) {
+            if (data[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the line of DATA from offset FROM to offset END, without
+     *  its newline. */
+    private static String line(byte[] data, int from, int end) {
+        return new String(data, from, end - from - 1,
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Returns true iff a daemon holds the lock of this monitor. */
+    private boolean isRunning() {
+        if (!_lock.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(_lock.toPath(),
+                 StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Runs the daemon, recording changes until the process is killed.
+     *  Returns at once if another daemon is already running. */
+    void run() {
+        _cookies.mkdirs();
+        try (FileChannel channel = FileChannel.open(_lock.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService watcher =
+                 FileSystems.getDefault().newWatchService()) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                System.out.println("A file system monitor is already "
+                                   + "running.");
+                return;
+            }
+            _watcher = watcher;
+            startJournal();
+            _cookies.toPath().register(watcher, ENTRY_CREATE);
+            registerAll(_workDir, null);
+            while (true) {
+                WatchKey key = watcher.take();
+                record(key);
+                if (!key.reset()) {
+                    _watched.remove(key);
+                }
+                _out.flush();
+                if (_journal.length() > MAX_JOURNAL) {
+                    startJournal();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            return;
+        }
+    }
+
+    /** Appends the changes reported by KEY to the journal. */
+    private void record(WatchKey key) throws IOException {
+        Path dir = (Path) key.watchable();
+        boolean cookies = dir.equals(_cookies.toPath());
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                write(OVERFLOW_MARK);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (cookies) {
+                write(COOKIE + child.getFileName());
+                continue;
+            }
+            write(workingName(child));
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                registerAll(child, this::writeQuietly);
+            }
+        }
+    }
+
+    /** Watches directory START and every directory under it apart from
+     *  the repository directory, passing each file found to FOUND if it
+     *  is not null. */
+    private void registerAll(Path start, Consumer<Path> found)
+        throws IOException {
+        Path gitlet = _dir.toPath().getParent();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                    BasicFileAttributes attrs) throws IOException {
+                if (d.equals(gitlet)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                _watched.put(d.register(_watcher, ENTRY_CREATE,
+                                        ENTRY_DELETE, ENTRY_MODIFY), d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path f,
+                    BasicFileAttributes attrs) {
+                if (found != null) {
+                    found.accept(f);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path f,
+                    IOException excp) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Starts a new, empty journal with a new generation. */
+    private void startJournal() throws IOException {
+        if (_out != null) {
+            _out.close();
+        }
+        _out = new FileOutputStream(_journal);
+        write(HEADER + UUID.randomUUID());
+        _out.flush();
+    }
+
+    /** Appends LINE to the journal. */
+    private void write(String line) throws IOException {
+        _out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Appends the working-directory path of PATH to the journal. */
+    private void writeQuietly(Path path) {
+        try {
+            write(workingName(path));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the path of PATH relative to the working directory, with
+     *  components separated by '/'. */
+    private String workingName(Path path) {
+        return _workDir.relativize(path).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    /** Start of the first line of the journal, followed by the
+     *  generation. */
+    private static final String HEADER = "gitlet-fsmonitor ";
+    /** Start of a journal line recording a cookie. */
+    private static final String COOKIE = "!cookie ";
+    /** Journal line recording that events were lost. */
+    private static final String OVERFLOW_MARK = "!overflow";
+    /** Milliseconds a client waits for the daemon to see its cookie. */
+    private static final long COOKIE_WAIT = 2000;
+    /** Longest interval, in milliseconds, between looks at the journal
+     *  while waiting for a cookie. */
+    private static final long MAX_POLL = 64;
+    /** Most bytes read looking for the end of the journal's first
+     *  line. */
+    private static final int MAX_HEADER = 256;
+    /** Size beyond which the journal is restarted. */
+    private static final long MAX_JOURNAL = 8 << 20;
+
+    /** The working directory. */
+    private final Path _workDir;
+    /** Directory holding the monitor's files. */
+    private final File _dir;
+    /** File locked by the running daemon. */
+    private final File _lock;
+    /** The journal of changes. */
+    private final File _journal;
+    /** Directory in which clients create cookies. */
+    private final File _cookies;
+    /** The daemon's watch service. */
+    private WatchService _watcher;
+    /** Directories watched by the daemon, by key. */
+    private final HashMap<WatchKey, Path> _watched = new HashMap<>();
+    /** Output to the journal. */
+    private OutputStream _out;
+}
@@ -0,0 +1,24 @@
+package gitlet;
+
+/** Where the index (see StagingArea) is kept.  Its contents, which end
+ *  with their SHA-1 checksum, are only ever read and replaced whole, so
+ *  the index can be kept in a file of the repository or, for testing
+ *  commands without touching the disk, in memory.
+ *  @author Nithish Rajan
+ */
+interface IndexStore {
+
+    /** Returns the contents of the index, or null if there is none. */
+    byte[] read();
+
+    /** Returns the time the index was last replaced, in nanoseconds since
+     *  the epoch, or 0 if there is no index. */
+    long timestamp();
+
+    /** Replaces the contents of the index with CONTENTS, provided the
+     *  checksum ending its current contents is still EXPECTED, or there
+     *  is no index and EXPECTED is null.  Throws a GitletException if
+     *  another command has replaced the index since, or is replacing
+     *  it. */
+    void replace(byte[] expected, byte[] contents);
+}
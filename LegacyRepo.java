@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Converts a repository kept in the layout of the first version of
+ *  gitlet to the current layout, the first time a command runs in it.
+ *  That layout kept each commit as a serialized Commit in a plain file of
+ *  the commit directory, named by the SHA-1 of its serialized form,
+ *  embedding its parents whole and mapping each path to a blob ID; each
+ *  blob as a plain file of the blob directory; each branch as a file
+ *  holding a serialized copy of its head commit; and the staged changes
+ *  as copies of the added files in stage/added and markers in
+ *  stage/remove.  The stage directory is found in no other layout.
+ *
+ *  Every commit is rebuilt with the same message, date, parents and
+ *  files, whether or not a branch leads to it, so only commit IDs
+ *  change; blob IDs, the SHA-1s of the contents, stay the same.  The
+ *  staged changes are carried into the index.  Each old file is removed
+ *  once converted, and the stage directory last, so a conversion cut
+ *  short is finished by the next command.
+ *  @author Nithish Rajan
+ */
+class LegacyRepo {
+
+    /** Directory of the staged changes, only found in the old layout. */
+    static final File STAGEPATH = Utils.join(Repo.GITLETPATH, "stage");
+
+    /** Converts the repository in the working directory, if it is in the
+     *  old layout.  Throws a GitletException if another command is
+     *  converting it. */
+    static void upgrade() {
+        if (!STAGEPATH.isDirectory()) {
+            return;
+        }
+        LockFile lock = new LockFile(STAGEPATH);
+        try {
+            if (STAGEPATH.isDirectory()) {
+                new LegacyRepo().convert();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** A converter writing to the object directories of the working
+     *  directory's repository. */
+    private LegacyRepo() {
+        _blobs = new ChunkedObjectStore(new LooseObjectStore(Repo.BLOBPATH),
+                                        new LooseObjectStore(
+                                            Repo.MANIFESTPATH));
+        _commits = new CommitStore(new LooseObjectStore(Repo.COMMITPATH));
+        _trees = new TreeStore(new LooseObjectStore(Repo.TREEPATH));
+        _refs = new Refs(Repo.BRANCHPATH, Repo.PACKEDREFS);
+    }
+
+    /** Converts the blobs, the commits, the branches and then the staged
+     *  changes. */
+    private void convert() {
+        for (File file : oldObjects(Repo.BLOBPATH)) {
+            _blobs.insert(ObjectStore.BLOB, file);
+            file.delete();
+        }
+        for (File file : oldObjects(Repo.COMMITPATH)) {
+            convert(read(file));
+            file.delete();
+        }
+        String head = _refs.head();
+        List<String> names = Utils.plainFilenamesIn(Repo.BRANCHPATH);
+        for (String name : names) {
+            File file = Utils.join(Repo.BRANCHPATH, name);
+            if (!name.equals(Refs.HEAD) && !name.endsWith(LockFile.SUFFIX)
+                && !ObjectId.isHex(Utils.readContentsAsString(file).trim())) {
+                ObjectId id = convert(read(file));
+                file.delete();
+                _refs.update(name, null, id);
+            }
+        }
+        Commit current = _commits.get(_refs.resolve(head));
+        TreeMap<String, ObjectId> files = _trees.flatten(current.getTree());
+        File added = Utils.join(STAGEPATH, "added");
+        File removed = Utils.join(STAGEPATH, "remove");
+        for (String name : plainFiles(added)) {
+            files.put(name, _blobs.insert(ObjectStore.BLOB,
+                                          Utils.join(added, name)));
+        }
+        for (String name : plainFiles(removed)) {
+            files.remove(name);
+        }
+        StagingArea stage = Repo.INDEXPATH.exists()
+            ? StagingArea.read(Repo.INDEXPATH)
+            : new StagingArea(Repo.INDEXPATH);
+        stage.clear(_trees, _trees.write(files));
+        stage.write();
+        deleteAll(STAGEPATH);
+    }
+
+    /** Returns the ID of the commit converted from OLD, storing it and
+     *  its ancestors if they have not been converted yet. */
+    private ObjectId convert(OldCommit old) {
+        ObjectId result = _converted.get(old);
+        if (result != null) {
+            return result;
+        }
+        ObjectId tree = _treeIds.get(old.blobs);
+        if (tree == null) {
+            TreeMap<String, ObjectId> files = new TreeMap<>();
+            for (Map.Entry<String, String> e : old.blobs.entrySet()) {
+                files.put(e.getKey(), ObjectId.fromHex(e.getValue()));
+            }
+            tree = _trees.write(files);
+            _treeIds.put(old.blobs, tree);
+        }
+        String key;
+        if (old.isMerge) {
+            ObjectId first = convert(old.parent1);
+            ObjectId second = convert(old.parent2);
+            key = old.message + "\0" + old.date + "\0" + tree + first
+                + second;
+            result = _byContents.get(key);
+            if (result == null) {
+                result = _commits.put(new Commit(old.message, old.date,
+                                                 first, second, tree));
+            }
+        } else {
+            ObjectId parent =
+                old.parent == null ? null : convert(old.parent);
+            key = old.message + "\0" + old.date + "\0" + tree + parent;
+            result = _byContents.get(key);
+            if (result == null) {
+                result = _commits.put(new Commit(old.message, old.date,
+                                                 parent, tree));
+            }
+        }
+        _byContents.put(key, result);
+        _converted.put(old, result);
+        return result;
+    }
+
+    /** Returns the old commit serialized in FILE. */
+    private static OldCommit read(File file) {
+        try (InputStream in = new FileInputStream(file);
+             ObjectInputStream objIn = new OldCommitInput(in)) {
+            return (OldCommit) objIn.readObject();
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException("cannot convert " + file
+                                               + ": " + excp.getMessage());
+        }
+    }
+
+    /** Returns the plain files directly in DIR named by SHA-1 IDs. */
+    private static File[] oldObjects(File dir) {
+        File[] result = dir.listFiles(f -> f.isFile()
+                                      && ObjectId.isHex(f.getName()));
+        return result == null ? new File[0] : result;
+    }
+
+    /** Returns the names of the plain files in DIR, if any. */
+    private static List<String> plainFiles(File dir) {
+        List<String> result = Utils.plainFilenamesIn(dir);
+        return result == null ? List.of() : result;
+    }
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** A commit as the old layout serialized it, read in place of
+     *  gitlet.Commit (see OldCommitInput).  Its fields must keep the
+     *  names and types of the old Commit's. */
+    private static class OldCommit implements Serializable {
+        /** Commit message. */
+        private String message;
+        /** Parent, or null for the initial commit or a merge. */
+        private OldCommit parent;
+        /** Date the commit was made. */
+        private ZonedDateTime date;
+        /** Blob IDs of the files, by path. */
+        private TreeMap<String, String> blobs;
+        /** First parent of a merge. */
+        private OldCommit parent1;
+        /** Second parent of a merge. */
+        private OldCommit parent2;
+        /** True iff this is a merge. */
+        private boolean isMerge;
+    }
+
+    /** A stream reading each serialized gitlet.Commit of the old layout
+     *  as an OldCommit, whose fields match the old class's. */
+    private static class OldCommitInput extends ObjectInputStream {
+        /** A stream reading serialized old commits from IN. */
+        OldCommitInput(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Commit.class.getName())) {
+                return ObjectStreamClass.lookup(OldCommit.class);
+            }
+            return desc;
+        }
+    }
+
+    /** Store of blobs. */
+    private final ChunkedObjectStore _blobs;
+    /** Store of converted commits. */
+    private final CommitStore _commits;
+    /** Store of the trees of converted commits. */
+    private final TreeStore _trees;
+    /** Branches. */
+    private final Refs _refs;
+    /** IDs of the commits converted from each old commit read. */
+    private final IdentityHashMap<OldCommit, ObjectId> _converted =
+        new IdentityHashMap<>();
+    /** IDs of converted commits, by message, date, tree and parents, so
+     *  a commit embedded in many old files is built only once. */
+    private final HashMap<String, ObjectId> _byContents = new HashMap<>();
+    /** IDs of the trees written, by the old map of paths to blob IDs. */
+    private final HashMap<TreeMap<String, String>, ObjectId> _treeIds =
+        new HashMap<>();
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/** A lock held while replacing the contents of a file.  Taking the lock
+ *  creates FILE.lock, which fails if it already exists, so two commands
+ *  never update FILE at once: the second fails at once instead of waiting
+ *  or overwriting the first's work.  The new contents are written to the
+ *  lock file, forced to disk, and then renamed over FILE, so a reader,
+ *  which never takes the lock, sees the old contents or the new but never
+ *  a partly written file or none at all, even after a crash.  Closing the
+ *  lock without committing discards the new contents and leaves FILE as
+ *  it was.
+ *  @author Nithish Rajan
+ */
+class LockFile implements AutoCloseable {
+
+    /** Suffix of the name of a lock file. */
+    static final String SUFFIX = ".lock";
+
+    /** Locks FILE, throwing a GitletException if it is already locked. */
+    LockFile(File file) {
+        _file = file;
+        _lock = new File(file.getPath() + SUFFIX);
+        try {
+            Files.createFile(_lock.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            throw new GitletException("Unable to lock " + file.getName()
+                                      + ": another gitlet command is "
+                                      + "updating it.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream writing the new contents of the locked file.  It
+     *  must not be closed by the caller. */
+    OutputStream output() {
+        if (_out == null) {
+            try {
+                _out = new FileOutputStream(_lock);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return _out;
+    }
+
+    /** Makes CONTENTS the new contents of the locked file. */
+    void write(byte[] contents) {
+        try {
+            output().write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replaces the locked file with the new contents written so far and
+     *  releases the lock. */
+    void commit() {
+        try {
+            output().flush();
+            _out.getFD().sync();
+            _out.close();
+            Files.move(_lock.toPath(), _file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            _committed = true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Releases the lock, discarding the new contents unless they were
+     *  committed. */
+    @Override
+    public void close() {
+        if (_committed) {
+            return;
+        }
+        try {
+            if (_out != null) {
+                _out.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _lock.delete();
+            _committed = true;
+        }
+    }
+
+    /** The locked file. */
+    private final File _file;
+    /** The lock file, holding the new contents. */
+    private final File _lock;
+    /** Output to _lock, or null if not yet opened. */
+    private FileOutputStream _out;
+    /** True iff the lock has been released. */
+    private boolean _committed;
+}
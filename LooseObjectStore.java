@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A directory of objects, each kept in its own file named by its SHA-1
+ *  ID.  To keep directories small, the files are spread over up to 256
+ *  fan-out subdirectories named by the first two hex digits of the ID, so
+ *  object ab12... lives in DIR/ab/12....  Looking up an object never
+ *  lists a directory; finding objects by abbreviated ID lists only the
+ *  one subdirectory the prefix selects.
+ *
+ *  Each file is deflate-compressed and starts (once inflated) with a
+ *  header "TYPE LENGTH\0" giving the kind of object and the length of its
+ *  contents.  IDs are always computed over the uncompressed contents,
+ *  without the header, so compression does not change them.  Objects are
+ *  written and read through streams, never held whole in memory.
+ *
+ *  A repository chains a PackObjectStore in front of its loose stores
+ *  (see ChainedObjectStore), so callers need not know whether an object
+ *  has been packed.
+ *  @author Nithish Rajan
+ */
+class LooseObjectStore implements ObjectStore {
+
+    /** Number of hex digits of an ID used to name its subdirectory. */
+    static final int FANOUT_DIGITS = 2;
+
+    /** A store of objects kept under directory DIR. */
+    LooseObjectStore(File dir) {
+        _dir = dir;
+    }
+
+    /** Returns the file holding object ID. */
+    File file(ObjectId id) {
+        String name = id.name();
+        return Utils.join(_dir, name.substring(0, FANOUT_DIGITS),
+                name.substring(FANOUT_DIGITS));
+    }
+
+    @Override
+    public boolean has(ObjectId id) {
+        return file(id).isFile();
+    }
+
+    /** Deletes the file of object ID, if any. */
+    @Override
+    public void delete(ObjectId id) {
+        file(id).delete();
+    }
+
+    /** Writes the SIZE bytes read from IN as object ID of type TYPE,
+     *  unless it is already present.  The object is deflated into a
+     *  temporary file that is then renamed into place, so a reader never
+     *  sees a partially written object. */
+    @Override
+    public void write(ObjectId id, String type, long size, InputStream in) {
+        if (has(id)) {
+            return;
+        }
+        File tmp = tempFile();
+        try {
+            deflate(tmp, type, size, in);
+            moveIntoPlace(tmp, id);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the contents of FILE as an object of type TYPE and returns
+     *  its ID.  FILE is read just once, through a fixed-size buffer,
+     *  computing its SHA-1 while deflating it into a temporary file.  The
+     *  temporary file is then renamed into place, or discarded if the
+     *  object is already present. */
+    @Override
+    public ObjectId insert(String type, File file) {
+        File tmp = tempFile();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (InputStream in = new DigestInputStream(
+                     new FileInputStream(file), md)) {
+                deflate(tmp, type, file.length(), in);
+            }
+            ObjectId id = ObjectId.fromRaw(md.digest(), 0);
+            if (has(id)) {
+                tmp.delete();
+            } else {
+                moveIntoPlace(tmp, id);
+            }
+            return id;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the header for an object of type TYPE and length SIZE and
+     *  then the contents read from IN, deflated, to TMP.  IN must deliver
+     *  exactly SIZE bytes. */
+    private void deflate(File tmp, String type, long size, InputStream in)
+        throws IOException {
+        long count = 0;
+        try (OutputStream out = new DeflaterOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            String header = type + " " + size + "\0";
+            out.write(header.getBytes(StandardCharsets.UTF_8));
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                out.write(buf, 0, n);
+                count += n;
+            }
+        }
+        if (count != size) {
+            throw new IOException("object changed while being stored");
+        }
+    }
+
+    /** Returns a new, empty temporary file in this store's directory. */
+    private File tempFile() {
+        try {
+            _dir.mkdirs();
+            return File.createTempFile(TEMP_PREFIX, null, _dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Atomically renames TMP to be the file of object ID.  If another
+     *  command has stored the object meanwhile, as when several adds
+     *  store the same contents at once, its file is kept and TMP, which
+     *  holds the same contents, is deleted. */
+    private void moveIntoPlace(File tmp, ObjectId id) throws IOException {
+        File f = file(id);
+        f.getParentFile().mkdirs();
+        try {
+            Files.move(tmp.toPath(), f.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException excp) {
+            tmp.delete();
+        } catch (IOException excp) {
+            if (!f.isFile()) {
+                throw excp;
+            }
+            tmp.delete();
+        }
+    }
+
+    /** Returns a stream over the uncompressed contents of object ID,
+     *  positioned just past its header.  The caller must close it. */
+    @Override
+    public InputStream open(ObjectId id) {
+        try {
+            InputStream in = new InflaterInputStream(
+                new BufferedInputStream(new FileInputStream(file(id))));
+            for (int c = in.read(); c != 0; c = in.read()) {
+                if (c == -1) {
+                    in.close();
+                    throw new IllegalArgumentException("corrupt object "
+                                                       + id);
+                }
+            }
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the IDs of all objects in this store whose IDs start with
+     *  PREFIX, which must be at least FANOUT_DIGITS long, in
+     *  lexicographic order. */
+    @Override
+    public List<ObjectId> withPrefix(String prefix) {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        addLoose(prefix, result);
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the IDs of all objects in this store in lexicographic
+     *  order. */
+    @Override
+    public List<ObjectId> ids() {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (int i = 0; i < FANOUT_COUNT; i += 1) {
+            addLoose(String.format("%02x", i), result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Adds the IDs of the loose objects whose IDs start with PREFIX to
+     *  RESULT. */
+    private void addLoose(String prefix, TreeSet<ObjectId> result) {
+        String sub = prefix.substring(0, FANOUT_DIGITS);
+        List<String> names =
+            Utils.plainFilenamesIn(Utils.join(_dir, sub));
+        if (names != null) {
+            for (String name : names) {
+                String id = sub + name;
+                if (ObjectId.isHex(id) && id.startsWith(prefix)) {
+                    result.add(ObjectId.fromHex(id));
+                }
+            }
+        }
+    }
+
+    /** Deletes the objects of this store that are not in KEEP and whose
+     *  files were last modified before BEFORE, in milliseconds since the
+     *  epoch, and the temporary files as old, which a command that
+     *  crashed while storing an object left behind. */
+    void prune(Set<ObjectId> keep, long before) {
+        for (ObjectId id : ids()) {
+            File f = file(id);
+            if (!keep.contains(id) && f.lastModified() < before) {
+                f.delete();
+            }
+        }
+        List<String> names = Utils.plainFilenamesIn(_dir);
+        if (names != null) {
+            for (String name : names) {
+                File f = Utils.join(_dir, name);
+                if (name.startsWith(TEMP_PREFIX)
+                    && f.lastModified() < before) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /** Size of the buffer used to copy object contents. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Prefix of the names of temporary files. */
+    private static final String TEMP_PREFIX = "tmp-";
+
+    /** Number of fan-out subdirectories. */
+    private static final int FANOUT_COUNT = 256;
+
+    /** Directory holding the fan-out subdirectories. */
+    private final File _dir;
+}
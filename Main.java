@@ -1,31 +1,62 @@
 package gitlet;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Nithish Rajan
  */
 public class Main {
     public static void main(String... args) throws IOException {
+        int status = 0;
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            status = 1;
+        }
+        if (System.getenv(CACHE_STATS) != null) {
+            System.err.println(Repo.cacheStats());
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /** Environment variable that, when set, makes each command report
+     *  the use of the object caches on the standard error. */
+    private static final String CACHE_STATS = "GITLET_CACHE_STATS";
+
+    /** Runs the command given by ARGS. */
+    private static void run(String... args) throws IOException {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
+        LegacyRepo.upgrade();
         Repo repo = new Repo();
         if (args[0].equals("init")) {
             repo.init();
         } else if (args[0].equals("add")) {
-            repo.add(args[1]);
+            repo.add(Arrays.copyOfRange(args, 1, args.length));
         } else if (args[0].equals("commit")) {
             repo.commit(args[1]);
         } else if (args[0].equals("rm")) {
             repo.remove(args[1]);
         } else if (args[0].equals("log")) {
-            repo.log();
+            log(repo, args);
         } else if (args[0].equals("global-log")) {
-            repo.glog();
+            globalLog(repo, args);
         } else if (args[0].equals("find")) {
-            repo.find(args[1]);
+            if (args.length == 3 && args[1].equals("--contains")) {
+                repo.findContaining(args[2]);
+            } else {
+                repo.find(args[1]);
+            }
         } else if (args[0].equals("status")) {
             repo.status();
         } else if (args[0].equals("checkout")) {
@@ -54,8 +85,75 @@ public class Main {
             repo.reset(args[1]);
         } else if (args[0].equals("merge")) {
             repo.merge(args[1]);
+        } else if (args[0].equals("repack")) {
+            repo.repack();
+        } else if (args[0].equals("gc")) {
+            repo.gc();
+        } else if (args[0].equals("pack-refs")) {
+            repo.packRefs();
+        } else if (args[0].equals("commit-graph")) {
+            repo.commitGraph();
+        } else if (args[0].equals("fsmonitor")) {
+            repo.fsmonitor();
         } else {
             System.out.println("No command with that name exists.");
         }
     }
+
+    /** Runs log in REPO with the operands in ARGS: an optional commit ID,
+     *  then optionally -- and a path to which to limit the log. */
+    private static void log(Repo repo, String... args) {
+        int end = Arrays.asList(args).indexOf("--");
+        String path = null;
+        if (end != -1) {
+            if (end != args.length - 2) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+            path = args[end + 1];
+        } else {
+            end = args.length;
+        }
+        if (end > 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        repo.log(end == 2 ? args[1] : null, path);
+    }
+
+    /** Runs global-log in REPO with the options in ARGS: -n COUNT, the
+     *  most commits to print, and --since DATE, the earliest to print,
+     *  given as yyyy-mm-dd or yyyy-mm-ddThh:mm:ss in local time. */
+    private static void globalLog(Repo repo, String... args) {
+        int limit = -1;
+        long since = Long.MIN_VALUE;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException();
+                } else if (args[i].equals("-n")) {
+                    limit = Integer.parseInt(args[i + 1]);
+                    if (limit < 0) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (args[i].equals("--since")) {
+                    since = parseDate(args[i + 1]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        repo.glog(limit, since);
+    }
+
+    /** Returns the time DATE, in yyyy-mm-dd or yyyy-mm-ddThh:mm:ss form
+     *  in local time, as seconds since the epoch. */
+    private static long parseDate(String date) {
+        LocalDateTime time = date.contains("T") ? LocalDateTime.parse(date)
+            : LocalDate.parse(date).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
 }
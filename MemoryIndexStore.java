@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** An index kept entirely in memory, for running commands without
+ *  touching the disk.  It may be used from several threads at once.
+ *  @author Nithish Rajan
+ */
+class MemoryIndexStore implements IndexStore {
+
+    @Override
+    public synchronized byte[] read() {
+        return _contents == null ? null : _contents.clone();
+    }
+
+    @Override
+    public synchronized long timestamp() {
+        return _timestamp;
+    }
+
+    @Override
+    public synchronized void replace(byte[] expected, byte[] contents) {
+        byte[] current = _contents == null ? null
+            : Arrays.copyOfRange(_contents,
+                                 Math.max(0, _contents.length
+                                          - CHECKSUM_SIZE),
+                                 _contents.length);
+        if (!Arrays.equals(current, expected)) {
+            throw new GitletException("The index was changed by "
+                                      + "another command.");
+        }
+        _contents = contents.clone();
+        Instant now = Instant.now();
+        _timestamp = TimeUnit.SECONDS.toNanos(now.getEpochSecond())
+            + now.getNano();
+    }
+
+    /** Size of the SHA-1 checksum ending the contents. */
+    private static final int CHECKSUM_SIZE = 20;
+
+    /** Contents of the index, or null if there is none. */
+    private byte[] _contents;
+    /** Time _contents were last replaced, in nanoseconds since the
+     *  epoch, or 0. */
+    private long _timestamp;
+}
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/** An ObjectStore kept entirely in memory.  Together with a
+ *  MemoryRefStore and a MemoryIndexStore, it lets a Repo run commands
+ *  without touching the disk beyond the working files.  It may be used
+ *  from several threads at once.
+ *  @author Nithish Rajan
+ */
+class MemoryObjectStore implements ObjectStore {
+
+    @Override
+    public boolean has(ObjectId id) {
+        return _contents.containsKey(id);
+    }
+
+    @Override
+    public InputStream open(ObjectId id) {
+        byte[] contents = _contents.get(id);
+        if (contents == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return new ByteArrayInputStream(contents);
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        byte[] contents = _contents.get(id);
+        if (contents == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return contents.clone();
+    }
+
+    @Override
+    public void write(ObjectId id, String type, long size, InputStream in) {
+        if (has(id)) {
+            return;
+        }
+        try {
+            byte[] contents = in.readAllBytes();
+            if (contents.length != size) {
+                throw new IllegalArgumentException("object changed while "
+                                                   + "being stored");
+            }
+            _contents.put(id, contents);
+            _types.put(id, type);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public ObjectId insert(String type, File file) {
+        byte[] contents = Utils.readContents(file);
+        ObjectId id = Utils.sha1Id(contents);
+        write(id, type, contents);
+        return id;
+    }
+
+    @Override
+    public void delete(ObjectId id) {
+        _contents.remove(id);
+        _types.remove(id);
+    }
+
+    @Override
+    public List<ObjectId> withPrefix(String prefix) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        for (ObjectId id : _contents.keySet()) {
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<ObjectId> ids() {
+        return new ArrayList<>(_contents.keySet());
+    }
+
+    /** Returns the type of object ID, or null if it is not here. */
+    String type(ObjectId id) {
+        return _types.get(id);
+    }
+
+    /** Object contents by ID. */
+    private final ConcurrentSkipListMap<ObjectId, byte[]> _contents =
+        new ConcurrentSkipListMap<>();
+    /** Object types by ID. */
+    private final ConcurrentSkipListMap<ObjectId, String> _types =
+        new ConcurrentSkipListMap<>();
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/** Branches kept entirely in memory, for running commands without
+ *  touching the disk.  They may be used from several threads at once.
+ *  @author Nithish Rajan
+ */
+class MemoryRefStore implements RefStore {
+
+    @Override
+    public synchronized ObjectId resolve(String name) {
+        return name == null ? null : _refs.get(name);
+    }
+
+    @Override
+    public synchronized void update(String name, ObjectId expected,
+                                    ObjectId id) {
+        if (!Refs.isValidName(name)) {
+            throw new GitletException("Not a valid branch name: " + name
+                                      + ".");
+        }
+        ObjectId current = _refs.get(name);
+        if (current == null ? expected != null : !current.equals(expected)) {
+            throw new GitletException("Branch " + name + " was changed "
+                                      + "by another command.");
+        }
+        _refs.put(name, id);
+    }
+
+    @Override
+    public synchronized String head() {
+        return _head;
+    }
+
+    @Override
+    public synchronized void setHead(String name) {
+        _head = name;
+    }
+
+    @Override
+    public synchronized void delete(String name) {
+        _refs.remove(name);
+    }
+
+    @Override
+    public synchronized List<String> names() {
+        return new ArrayList<>(_refs.keySet());
+    }
+
+    @Override
+    public void pack() {
+    }
+
+    /** Branches by name. */
+    private final TreeMap<String, ObjectId> _refs = new TreeMap<>();
+    /** Name of the current branch, or null. */
+    private String _head;
+}
@@ -0,0 +1,432 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** An index from the messages of commits to the commits, so that find
+ *  reads only the commits it reports instead of every commit.  The index
+ *  has keys of two kinds, each mapped to the commits having it: a whole
+ *  message, and every suffix of every word (run of letters and digits,
+ *  in lower case) of a message.  A word is part of a message's word just
+ *  when it starts one of that word's suffixes, so the commits whose
+ *  messages contain some text are found among those with keys starting
+ *  with each of its words.  Long keys are cut short, so lookups give
+ *  candidates, which the caller checks against the commits themselves.
+ *
+ *  The index is a sorted file, memory-mapped and searched in place, and
+ *  a journal of the commits made since that file was written, which
+ *  commands append to as they make commits.  When the journal grows too
+ *  large it is merged into the sorted file.
+ *
+ *  The sorted file starts with the magic "MIDX", a version, the number
+ *  of commits C and the number of keys K.  The C 20-byte commit IDs
+ *  follow in ascending order, then K 4-byte offsets of the keys in the
+ *  file, in ascending order of key.  Each key is its length as a 2-byte
+ *  integer and its UTF-8 bytes, followed by the positions among the IDs
+ *  of its commits: their number and the first, then the differences
+ *  between successive positions, each a variable-length integer (see
+ *  Delta).  The SHA-1 of everything before it ends the file.  The
+ *  journal holds, for each commit, its 20-byte ID and its message as a
+ *  4-byte length and UTF-8 bytes.
+ *  @author Nithish Rajan
+ */
+class MessageIndex {
+
+    /** The index whose sorted file is FILE. */
+    MessageIndex(File file) {
+        _file = file;
+        _journal = new File(file.getPath() + ".journal");
+    }
+
+    /** Returns true iff this index has been built. */
+    boolean exists() {
+        return _file.isFile();
+    }
+
+    /** Replaces this index with one of the commits in MESSAGES, which
+     *  maps their IDs to their messages. */
+    void build(Map<ObjectId, String> messages) {
+        try (LockFile journal = new LockFile(_journal);
+             LockFile index = new LockFile(_file)) {
+            TreeMap<String, TreeSet<ObjectId>> keys = new TreeMap<>();
+            for (Map.Entry<ObjectId, String> e : messages.entrySet()) {
+                addKeys(keys, e.getKey(), e.getValue());
+            }
+            write(index, keys);
+            journal.commit();
+        }
+        _buf = null;
+    }
+
+    /** Records that commit ID has message MESSAGE.  Does nothing if this
+     *  index has not been built, since building it will find the
+     *  commit. */
+    void add(ObjectId id, String message) {
+        if (exists()) {
+            update(record(id, message));
+        }
+    }
+
+    /** Merges the journal into the sorted file, if this index has been
+     *  built. */
+    void compact() {
+        if (exists()) {
+            update(null);
+        }
+    }
+
+    /** Appends RECORD, unless it is null, to the journal, and merges the
+     *  journal into the sorted file if RECORD is null or the journal
+     *  would grow beyond MAX_JOURNAL bytes. */
+    private void update(byte[] record) {
+        try (LockFile journal = new LockFile(_journal)) {
+            byte[] old = readJournal();
+            if (record != null && old.length + record.length <= MAX_JOURNAL) {
+                journal.write(old);
+                journal.write(record);
+            } else {
+                try (LockFile index = new LockFile(_file)) {
+                    TreeMap<String, TreeSet<ObjectId>> keys = readAll();
+                    addJournal(keys, old);
+                    if (record != null) {
+                        addJournal(keys, record);
+                    }
+                    write(index, keys);
+                }
+                _buf = null;
+            }
+            journal.commit();
+        }
+    }
+
+    /** Returns the IDs of the commits that may have message MESSAGE,
+     *  in ascending order: all those that do, and perhaps others. */
+    TreeSet<ObjectId> withMessage(String message) {
+        TreeSet<ObjectId> result = lookup(exactKey(message), false);
+        for (Map.Entry<ObjectId, String> e
+                 : parseJournal(readJournal()).entrySet()) {
+            if (e.getValue().equals(message)) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the IDs of the commits whose messages may contain TEXT,
+     *  ignoring case, in ascending order: all those that do, and perhaps
+     *  others.  Returns null if TEXT has no words, so that the index
+     *  cannot narrow the search. */
+    TreeSet<ObjectId> containing(String text) {
+        List<String> words = words(text);
+        if (words.isEmpty()) {
+            return null;
+        }
+        TreeSet<ObjectId> result = null;
+        for (String word : words) {
+            TreeSet<ObjectId> ids = lookup(SUFFIX + cut(word, MAX_SUFFIX),
+                                           true);
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (Map.Entry<ObjectId, String> e
+                 : parseJournal(readJournal()).entrySet()) {
+            if (e.getValue().toLowerCase(Locale.ROOT).contains(lower)) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the IDs of the commits with key KEY in the sorted file,
+     *  or, if PREFIX, with any key starting with KEY. */
+    private TreeSet<ObjectId> lookup(String key, boolean prefix) {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        ByteBuffer buf = buffer();
+        if (buf == null) {
+            return result;
+        }
+        int count = buf.getInt(12);
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(buf, mid).compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < count; k += 1) {
+            String found = keyAt(buf, k);
+            if (prefix ? !found.startsWith(key) : !found.equals(key)) {
+                break;
+            }
+            int off = keyOffset(buf, k);
+            int[] pos = { off + 2 + (buf.getShort(off) & 0xffff) };
+            int id = 0;
+            for (int n = (int) readVarint(buf, pos); n > 0; n -= 1) {
+                id += (int) readVarint(buf, pos);
+                result.add(ObjectId.fromBuffer(buf,
+                               IDS_START + id * ObjectId.LENGTH));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the offset in BUF of the Kth key. */
+    private static int keyOffset(ByteBuffer buf, int k) {
+        return buf.getInt(IDS_START + buf.getInt(8) * ObjectId.LENGTH
+                          + 4 * k);
+    }
+
+    /** Returns the Kth key in BUF. */
+    private static String keyAt(ByteBuffer buf, int k) {
+        int off = keyOffset(buf, k);
+        byte[] key = new byte[buf.getShort(off) & 0xffff];
+        buf.get(off + 2, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the variable-length integer in BUF at POS[0], advancing
+     *  POS[0] past it. */
+    private static long readVarint(ByteBuffer buf, int[] pos) {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = buf.get(pos[0]) & 0xff;
+            pos[0] += 1;
+            v |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+    }
+
+    /** Returns the mapped sorted file, or null if it is missing or
+     *  invalid. */
+    private ByteBuffer buffer() {
+        if (_buf == null && exists()) {
+            try (FileChannel channel = FileChannel.open(_file.toPath(),
+                     StandardOpenOption.READ)) {
+                MappedByteBuffer buf = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buf.limit() >= IDS_START && buf.getInt(0) == MAGIC
+                    && buf.getInt(4) == VERSION) {
+                    _buf = buf;
+                }
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+        return _buf;
+    }
+
+    /** Returns every key of the sorted file with the IDs of its
+     *  commits. */
+    private TreeMap<String, TreeSet<ObjectId>> readAll() {
+        TreeMap<String, TreeSet<ObjectId>> result = new TreeMap<>();
+        ByteBuffer buf = buffer();
+        if (buf != null) {
+            for (int k = 0; k < buf.getInt(12); k += 1) {
+                String key = keyAt(buf, k);
+                result.put(key, lookup(key, false));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of the journal. */
+    private byte[] readJournal() {
+        try {
+            return _journal.isFile() ? Files.readAllBytes(_journal.toPath())
+                : new byte[0];
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the messages of the commits recorded in JOURNAL, the
+     *  contents of a journal, by ID. */
+    private static HashMap<ObjectId, String> parseJournal(byte[] journal) {
+        HashMap<ObjectId, String> result = new HashMap<>();
+        ByteBuffer in = ByteBuffer.wrap(journal);
+        while (in.hasRemaining()) {
+            ObjectId id = ObjectId.fromBuffer(in, in.position());
+            byte[] message = new byte[in.getInt(in.position()
+                                                + ObjectId.LENGTH)];
+            in.position(in.position() + ObjectId.LENGTH + 4);
+            in.get(message);
+            result.put(id, new String(message, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /** Adds to KEYS the keys of the commits recorded in JOURNAL, the
+     *  contents of a journal. */
+    private static void addJournal(TreeMap<String, TreeSet<ObjectId>> keys,
+                                   byte[] journal) {
+        for (Map.Entry<ObjectId, String> e
+                 : parseJournal(journal).entrySet()) {
+            addKeys(keys, e.getKey(), e.getValue());
+        }
+    }
+
+    /** Returns the journal record of commit ID with message MESSAGE. */
+    private static byte[] record(ObjectId id, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer result =
+            ByteBuffer.allocate(ObjectId.LENGTH + 4 + bytes.length);
+        result.put(id.toRaw()).putInt(bytes.length).put(bytes);
+        return result.array();
+    }
+
+    /** Adds to KEYS the keys of commit ID, whose message is MESSAGE. */
+    private static void addKeys(TreeMap<String, TreeSet<ObjectId>> keys,
+                                ObjectId id, String message) {
+        keys.computeIfAbsent(exactKey(message), k -> new TreeSet<>())
+            .add(id);
+        for (String word : words(message)) {
+            for (int i = 0; i < word.length(); i += 1) {
+                String key = SUFFIX + cut(word.substring(i), MAX_SUFFIX);
+                keys.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+            }
+        }
+    }
+
+    /** Returns the key of the whole message MESSAGE. */
+    private static String exactKey(String message) {
+        return EXACT + cut(message, MAX_MESSAGE);
+    }
+
+    /** Returns the words of TEXT, in lower case. */
+    private static List<String> words(String text) {
+        ArrayList<String> result = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i += 1) {
+            boolean inWord = i < lower.length()
+                && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start == -1) {
+                start = i;
+            } else if (!inWord && start != -1) {
+                result.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the first MAX characters of S, or fewer if the last would
+     *  be the first half of a surrogate pair. */
+    private static String cut(String s, int max) {
+        if (s.length() <= max) {
+            return s;
+        }
+        int end = Character.isHighSurrogate(s.charAt(max - 1)) ? max - 1
+            : max;
+        return s.substring(0, end);
+    }
+
+    /** Writes the sorted file holding KEYS through INDEX, the lock on
+     *  it. */
+    private static void write(LockFile index,
+                              TreeMap<String, TreeSet<ObjectId>> keys) {
+        TreeSet<ObjectId> all = new TreeSet<>();
+        for (TreeSet<ObjectId> ids : keys.values()) {
+            all.addAll(ids);
+        }
+        HashMap<ObjectId, Integer> positions = new HashMap<>();
+        for (ObjectId id : all) {
+            positions.put(id, positions.size());
+        }
+        int keysStart = IDS_START + all.size() * ObjectId.LENGTH
+            + 4 * keys.size();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[keys.size()];
+        int k = 0;
+        for (Map.Entry<String, TreeSet<ObjectId>> e : keys.entrySet()) {
+            offsets[k] = keysStart + data.size();
+            k += 1;
+            byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+            data.write(key.length >>> 8);
+            data.write(key.length);
+            data.write(key, 0, key.length);
+            Delta.writeVarint(data, e.getValue().size());
+            int last = 0;
+            for (ObjectId id : e.getValue()) {
+                int pos = positions.get(id);
+                Delta.writeVarint(data, pos - last);
+                last = pos;
+            }
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(index.output()));
+            DataOutputStream body =
+                new DataOutputStream(new DigestOutputStream(out, md));
+            body.writeInt(MAGIC);
+            body.writeInt(VERSION);
+            body.writeInt(all.size());
+            body.writeInt(keys.size());
+            for (ObjectId id : all) {
+                body.write(id.toRaw());
+            }
+            for (int offset : offsets) {
+                body.writeInt(offset);
+            }
+            data.writeTo(body);
+            body.flush();
+            out.write(md.digest());
+            out.flush();
+            index.commit();
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Magic number beginning the sorted file ("MIDX"). */
+    private static final int MAGIC = 0x4d494458;
+    /** Version of the format. */
+    private static final int VERSION = 1;
+    /** Offset of the first ID. */
+    private static final int IDS_START = 16;
+    /** Start of the key of a whole message. */
+    private static final String EXACT = "=";
+    /** Start of the key of a suffix of a word. */
+    private static final String SUFFIX = "~";
+    /** Longest part of a message kept in its key. */
+    private static final int MAX_MESSAGE = 1000;
+    /** Longest part of a suffix kept in its key. */
+    private static final int MAX_SUFFIX = 32;
+    /** Size beyond which the journal is merged into the sorted file. */
+    private static final int MAX_JOURNAL = 256 << 10;
+
+    /** The sorted file. */
+    private final File _file;
+    /** The journal of commits added since _file was written. */
+    private final File _journal;
+    /** The mapped contents of _file, or null if not yet mapped. */
+    private ByteBuffer _buf;
+}
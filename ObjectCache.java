@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A cache of the decoded forms of objects, keyed by ID, holding at most
+ *  a fixed total weight and discarding the least recently used objects
+ *  first.  An object never changes once written, so its cached form
+ *  stays correct for as long as it is kept, and one cache can serve every
+ *  command run in a process.  The cache counts its hits and misses, and
+ *  may be used by several threads at once.  Cached values are shared, and
+ *  must not be modified.
+ *  @author Nithish Rajan
+ */
+class ObjectCache<V> {
+
+    /** A cache holding values of total weight at most CAPACITY, the
+     *  weight of each given by WEIGHER. */
+    ObjectCache(long capacity, ToLongFunction<V> weigher) {
+        _capacity = capacity;
+        _weigher = weigher;
+    }
+
+    /** Returns the value cached for ID, or null if there is none. */
+    synchronized V get(ObjectId id) {
+        V result = _values.get(id);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Caches VALUE for ID, unless it alone outweighs the whole cache,
+     *  discarding the least recently used values to make room. */
+    synchronized void put(ObjectId id, V value) {
+        long weight = _weigher.applyAsLong(value);
+        if (weight > _capacity) {
+            return;
+        }
+        V old = _values.put(id, value);
+        if (old != null) {
+            _weight -= _weigher.applyAsLong(old);
+        }
+        _weight += weight;
+        Iterator<Map.Entry<ObjectId, V>> eldest =
+            _values.entrySet().iterator();
+        while (_weight > _capacity) {
+            _weight -= _weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /** Discards any value cached for ID. */
+    synchronized void remove(ObjectId id) {
+        V old = _values.remove(id);
+        if (old != null) {
+            _weight -= _weigher.applyAsLong(old);
+        }
+    }
+
+    /** Returns the number of lookups that found a value. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that found none. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d objects of weight "
+                             + "%d/%d", _hits, _misses, _values.size(),
+                             _weight, _capacity);
+    }
+
+    /** Largest total weight of the cached values. */
+    private final long _capacity;
+    /** Gives the weight of a value. */
+    private final ToLongFunction<V> _weigher;
+    /** Cached values by ID, least recently used first. */
+    private final LinkedHashMap<ObjectId, V> _values =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of the cached values. */
+    private long _weight;
+    /** Number of lookups that found a value. */
+    private long _hits;
+    /** Number of lookups that found none. */
+    private long _misses;
+}
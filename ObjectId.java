@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/** The SHA-1 ID of an object, held as its 20 raw bytes packed into five
+ *  ints rather than as a 40-character hexadecimal String.  ObjectIds are
+ *  immutable; equality, hashing and ordering work on the ints directly,
+ *  and the hexadecimal form is only built (and then kept) when asked for.
+ *  ObjectIds are ordered as their hexadecimal names are.
+ *  @author Nithish Rajan
+ */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Number of bytes in an ID. */
+    static final int LENGTH = Utils.UID_LENGTH / 2;
+
+    /** The ID whose bytes, taken four at a time as big-endian ints, are
+     *  W0 .. W4. */
+    private ObjectId(int w0, int w1, int w2, int w3, int w4) {
+        _w0 = w0;
+        _w1 = w1;
+        _w2 = w2;
+        _w3 = w3;
+        _w4 = w4;
+    }
+
+    /** Returns the ID held in the LENGTH bytes of RAW starting at OFF. */
+    static ObjectId fromRaw(byte[] raw, int off) {
+        return new ObjectId(word(raw, off), word(raw, off + 4),
+                            word(raw, off + 8), word(raw, off + 12),
+                            word(raw, off + 16));
+    }
+
+    /** Returns the ID held in the LENGTH bytes of BUF starting at
+     *  absolute position POS. */
+    static ObjectId fromBuffer(ByteBuffer buf, int pos) {
+        return new ObjectId(buf.getInt(pos), buf.getInt(pos + 4),
+                            buf.getInt(pos + 8), buf.getInt(pos + 12),
+                            buf.getInt(pos + 16));
+    }
+
+    /** Returns the ID whose hexadecimal name is HEX.  Throws
+     *  IllegalArgumentException if HEX is not such a name. */
+    static ObjectId fromHex(String hex) {
+        if (!isHex(hex)) {
+            throw new IllegalArgumentException("not an object ID: " + hex);
+        }
+        int[] w = new int[5];
+        for (int i = 0; i < Utils.UID_LENGTH; i += 1) {
+            w[i / 8] = (w[i / 8] << 4) | Character.digit(hex.charAt(i), 16);
+        }
+        ObjectId result = new ObjectId(w[0], w[1], w[2], w[3], w[4]);
+        result._name = hex;
+        return result;
+    }
+
+    /** Returns true iff S is the full hexadecimal name of an ID. */
+    static boolean isHex(String s) {
+        return s.length() == Utils.UID_LENGTH && isHexPrefix(s);
+    }
+
+    /** Returns true iff S is a nonempty prefix of the hexadecimal name of
+     *  an ID. */
+    static boolean isHexPrefix(String s) {
+        if (s.isEmpty() || s.length() > Utils.UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the smallest ID whose hexadecimal name starts with PREFIX,
+     *  which must satisfy isHexPrefix. */
+    static ObjectId lowest(String prefix) {
+        return fromHex(prefix + "0".repeat(Utils.UID_LENGTH
+                                           - prefix.length()));
+    }
+
+    /** Returns the first byte of this ID, as an unsigned value. */
+    int firstByte() {
+        return _w0 >>> 24;
+    }
+
+    /** Returns the Kth 4-byte word of this ID, 0 <= K < 5. */
+    int word(int k) {
+        switch (k) {
+        case 0:
+            return _w0;
+        case 1:
+            return _w1;
+        case 2:
+            return _w2;
+        case 3:
+            return _w3;
+        default:
+            return _w4;
+        }
+    }
+
+    /** Stores the LENGTH bytes of this ID into RAW starting at OFF. */
+    void copyRawTo(byte[] raw, int off) {
+        for (int k = 0; k < 5; k += 1) {
+            int w = word(k);
+            raw[off + 4 * k] = (byte) (w >>> 24);
+            raw[off + 4 * k + 1] = (byte) (w >>> 16);
+            raw[off + 4 * k + 2] = (byte) (w >>> 8);
+            raw[off + 4 * k + 3] = (byte) w;
+        }
+    }
+
+    /** Returns the LENGTH bytes of this ID. */
+    byte[] toRaw() {
+        byte[] raw = new byte[LENGTH];
+        copyRawTo(raw, 0);
+        return raw;
+    }
+
+    /** Returns the 40-character hexadecimal name of this ID. */
+    String name() {
+        if (_name == null) {
+            char[] hex = new char[Utils.UID_LENGTH];
+            for (int i = 0; i < hex.length; i += 1) {
+                int nibble = (word(i / 8) >>> (28 - 4 * (i % 8))) & 0xf;
+                hex[i] = Character.forDigit(nibble, 16);
+            }
+            _name = new String(hex);
+        }
+        return _name;
+    }
+
+    /** Returns true iff the hexadecimal name of this ID starts with
+     *  PREFIX. */
+    boolean startsWith(String prefix) {
+        return name().startsWith(prefix);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w0 == other._w0 && _w1 == other._w1 && _w2 == other._w2
+            && _w3 == other._w3 && _w4 == other._w4;
+    }
+
+    @Override
+    public int hashCode() {
+        return _w1;
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        for (int k = 0; k < 5; k += 1) {
+            int c = Integer.compareUnsigned(word(k), other.word(k));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the big-endian int in the 4 bytes of RAW starting at OFF. */
+    private static int word(byte[] raw, int off) {
+        return (raw[off] & 0xff) << 24 | (raw[off + 1] & 0xff) << 16
+            | (raw[off + 2] & 0xff) << 8 | (raw[off + 3] & 0xff);
+    }
+
+    /** The bytes of this ID, four to an int, most significant first. */
+    private final int _w0, _w1, _w2, _w3, _w4;
+    /** Hexadecimal name of this ID, or null if not yet built. */
+    private transient String _name;
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A place objects are read from, each named by the SHA-1 ID of its
+ *  contents.  Packs, which are only ever written whole, are read through
+ *  this interface alone; stores that objects can also be written to and
+ *  removed from are ObjectStores.  Sources may be used from several
+ *  threads at once.
+ *  @author Nithish Rajan
+ */
+interface ObjectSource {
+
+    /** Returns true iff object ID is in this source. */
+    boolean has(ObjectId id);
+
+    /** Returns a stream over the contents of object ID, which must be in
+     *  this source.  The caller must close it. */
+    InputStream open(ObjectId id);
+
+    /** Returns the IDs of all objects in this source whose IDs start with
+     *  PREFIX, which must be at least two characters long, in
+     *  lexicographic order. */
+    List<ObjectId> withPrefix(String prefix);
+
+    /** Returns the IDs of all objects in this source in lexicographic
+     *  order. */
+    List<ObjectId> ids();
+
+    /** Returns the contents of object ID. */
+    default byte[] read(ObjectId id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of object ID as a String. */
+    default String readAsString(ObjectId id) {
+        return new String(read(id), StandardCharsets.UTF_8);
+    }
+
+    /** Writes the contents of object ID to FILE, replacing any existing
+     *  contents. */
+    default void copyTo(ObjectId id, File file) {
+        try (InputStream in = open(id);
+             OutputStream out =
+                 new BufferedOutputStream(new FileOutputStream(file))) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns those of IDS that are not in this source, in the order
+     *  given. */
+    default List<ObjectId> missing(Collection<ObjectId> ids) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        for (ObjectId id : ids) {
+            if (!has(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of each of IDS, all of which must be in this
+     *  source, keyed by ID in the order given. */
+    default Map<ObjectId, byte[]> readAll(Collection<ObjectId> ids) {
+        LinkedHashMap<ObjectId, byte[]> result = new LinkedHashMap<>();
+        for (ObjectId id : ids) {
+            result.put(id, read(id));
+        }
+        return result;
+    }
+}
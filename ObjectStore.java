@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
+
+/** A place objects are kept, each named by the SHA-1 ID of its contents
+ *  and tagged with a type, and to which objects can be written and from
+ *  which they can be removed.  Commands read and write objects only
+ *  through this interface, so the storage layout can change (loose files,
+ *  chunks, packs in front of loose files) without touching them.
+ *  @author Nithish Rajan
+ */
+interface ObjectStore extends ObjectSource {
+
+    /** Type of objects holding the contents of a file. */
+    String BLOB = "blob";
+    /** Type of objects holding a serialized commit. */
+    String COMMIT = "commit";
+    /** Type of objects holding a tree (see TreeStore). */
+    String TREE = "tree";
+
+    /** Writes the SIZE bytes read from IN as object ID of type TYPE,
+     *  unless it is already present. */
+    void write(ObjectId id, String type, long size, InputStream in);
+
+    /** Stores the contents of FILE as an object of type TYPE and returns
+     *  its ID. */
+    ObjectId insert(String type, File file);
+
+    /** Removes object ID from this store, if this store holds it. */
+    void delete(ObjectId id);
+
+    /** Writes CONTENTS as object ID of type TYPE, unless it is already
+     *  present. */
+    default void write(ObjectId id, String type, byte[] contents) {
+        write(id, type, contents.length, new ByteArrayInputStream(contents));
+    }
+
+    /** Writes each of OBJECTS, a map from ID to contents, as an object of
+     *  type TYPE. */
+    default void writeAll(String type, Map<ObjectId, byte[]> objects) {
+        for (Map.Entry<ObjectId, byte[]> e : objects.entrySet()) {
+            write(e.getKey(), type, e.getValue());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The packs of a repository, kept in one directory as pairs of files
+ *  pack-NAME.pack and pack-NAME.idx.  A pack whose index has not yet been
+ *  written is ignored.
+ *  @author Nithish Rajan
+ */
+class PackDirectory {
+
+    /** The packs in directory DIR. */
+    PackDirectory(File dir) {
+        _dir = dir;
+    }
+
+    /** Returns the directory holding the packs. */
+    File dir() {
+        return _dir;
+    }
+
+    /** Returns the packs in this directory, finding them on first use. */
+    synchronized List<PackFile> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(_dir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(IDX_SUFFIX)) {
+                        String base = name.substring(0, name.length()
+                                                     - IDX_SUFFIX.length());
+                        File pack = Utils.join(_dir, base + PACK_SUFFIX);
+                        if (pack.isFile()) {
+                            _packs.add(new PackFile(pack,
+                                                    Utils.join(_dir, name)));
+                        }
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Forget the packs found so far, so that the next use finds them
+     *  again. */
+    synchronized void rescan() {
+        _packs = null;
+    }
+
+    /** Returns the pack holding object ID of type TYPE, or null if there
+     *  is none. */
+    PackFile packFor(ObjectId id, String type) {
+        for (PackFile pack : packs()) {
+            if (pack.has(id, type)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Returns true iff object ID of type TYPE is in some pack. */
+    boolean has(ObjectId id, String type) {
+        return packFor(id, type) != null;
+    }
+
+    /** Returns the contents of object ID of type TYPE, or null if it is
+     *  in no pack. */
+    byte[] read(ObjectId id, String type) {
+        PackFile pack = packFor(id, type);
+        return pack == null ? null : pack.read(id);
+    }
+
+    /** Returns the IDs of all objects of type TYPE in any pack, in
+     *  lexicographic order. */
+    List<ObjectId> ids(String type) {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (PackFile pack : packs()) {
+            result.addAll(pack.ids(type));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the IDs of all objects of type TYPE in any pack whose IDs
+     *  start with PREFIX, in lexicographic order. */
+    List<ObjectId> withPrefix(String prefix, String type) {
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (PackFile pack : packs()) {
+            result.addAll(pack.withPrefix(prefix, type));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Suffix of pack file names. */
+    static final String PACK_SUFFIX = ".pack";
+    /** Suffix of index file names. */
+    static final String IDX_SUFFIX = ".idx";
+
+    /** Directory holding the packs. */
+    private final File _dir;
+    /** The packs found, or null if not yet looked for. */
+    private List<PackFile> _packs;
+}
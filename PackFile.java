@@ -0,0 +1,366 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** A read-only pack: a single file holding many objects, together with
+ *  its index.
+ *
+ *  The pack file starts with the magic "PACK", a version and an object
+ *  count.  Each object follows as a type byte, the length of its data as a
+ *  variable-length integer (see Delta.writeVarint), the 20-byte ID of its
+ *  base if it is a delta, and then its deflated data.  A delta's data is a
+ *  Delta against its base, which is another object of the same pack.  The
+ *  pack ends with the SHA-1 of everything before it.
+ *
+ *  The index starts with the magic "PIDX", a version and the object count
+ *  N.  A fan-out table of 256 4-byte counts follows, entry B giving the
+ *  number of objects whose IDs start with a byte no greater than B.  Then
+ *  come the N 20-byte object IDs in ascending order, N type bytes, and N
+ *  8-byte offsets of the objects in the pack.  The index is memory-mapped,
+ *  and a lookup is a binary search over only the IDs that share the
+ *  first byte of the one sought, comparing the words of an ObjectId
+ *  directly against the mapped bytes.
+ *  @author Nithish Rajan
+ */
+class PackFile {
+
+    /** Pack entry type of a commit. */
+    static final int OBJ_COMMIT = 1;
+    /** Pack entry type of a blob. */
+    static final int OBJ_BLOB = 2;
+    /** Pack entry type of a delta against another object. */
+    static final int OBJ_DELTA = 3;
+    /** Pack entry type of a tree. */
+    static final int OBJ_TREE = 4;
+    /** Magic number beginning a pack file. */
+    static final int PACK_MAGIC = 0x5041434b;
+    /** Magic number beginning an index file. */
+    static final int IDX_MAGIC = 0x50494458;
+    /** Version of the pack and index formats. */
+    static final int VERSION = 2;
+    /** Length of a raw object ID. */
+    static final int ID_BYTES = ObjectId.LENGTH;
+
+    /** The pack PACK, indexed by IDX. */
+    PackFile(File pack, File idx) {
+        _pack = pack;
+        _idx = idx;
+        try (FileChannel channel = FileChannel.open(idx.toPath(),
+                 StandardOpenOption.READ)) {
+            _index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_index.getInt(0) != IDX_MAGIC || _index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad pack index " + idx);
+        }
+        _count = _index.getInt(8);
+        _typesStart = IDS_START + _count * ID_BYTES;
+        _offsetsStart = _typesStart + _count;
+    }
+
+    /** Returns the type name (as for ObjectStore) of pack entry type
+     *  CODE. */
+    static String typeName(int code) {
+        switch (code) {
+        case OBJ_COMMIT:
+            return ObjectStore.COMMIT;
+        case OBJ_TREE:
+            return ObjectStore.TREE;
+        default:
+            return ObjectStore.BLOB;
+        }
+    }
+
+    /** Returns the pack entry type of objects of type TYPE. */
+    static int typeCode(String type) {
+        switch (type) {
+        case ObjectStore.COMMIT:
+            return OBJ_COMMIT;
+        case ObjectStore.TREE:
+            return OBJ_TREE;
+        default:
+            return OBJ_BLOB;
+        }
+    }
+
+    /** Returns the pack file. */
+    File packFile() {
+        return _pack;
+    }
+
+    /** Returns the index file. */
+    File indexFile() {
+        return _idx;
+    }
+
+    /** Closes the pack file, if it was opened. */
+    synchronized void close() {
+        try {
+            if (_channel != null) {
+                _channel.close();
+                _channel = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the position of object ID in the index, or -1 if it is not
+     *  in this pack. */
+    int find(ObjectId id) {
+        int k = lowerBound(id);
+        return k < size() && compare(k, id) == 0 ? k : -1;
+    }
+
+    /** Returns the index position of the first ID not less than ID, or
+     *  the number of objects if there is none. */
+    private int lowerBound(ObjectId id) {
+        int first = id.firstByte();
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns true iff object ID is in this pack. */
+    boolean has(ObjectId id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns true iff object ID is in this pack and of type TYPE. */
+    boolean has(ObjectId id, String type) {
+        int k = find(id);
+        return k >= 0 && typeAt(k) == typeCode(type);
+    }
+
+    /** Returns the ID of the object at index position K. */
+    ObjectId id(int k) {
+        return ObjectId.fromBuffer(_index, IDS_START + k * ID_BYTES);
+    }
+
+    /** Returns the number of objects whose IDs start with a byte no
+     *  greater than B. */
+    private int fanout(int b) {
+        return _index.getInt(FANOUT_START + 4 * b);
+    }
+
+    /** Compares the ID at index position K with ID, returning a
+     *  negative, zero or positive result as the former is less than,
+     *  equal to or greater than the latter. */
+    private int compare(int k, ObjectId id) {
+        int base = IDS_START + k * ID_BYTES;
+        for (int j = 0; j < 5; j += 1) {
+            int c = Integer.compareUnsigned(_index.getInt(base + 4 * j),
+                                            id.word(j));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the pack entry type of the object at index position K. */
+    private int typeAt(int k) {
+        return _index.get(_typesStart + k);
+    }
+
+    /** Returns the pack offset of the object at index position K. */
+    private long offsetAt(int k) {
+        return _index.getLong(_offsetsStart + 8 * k);
+    }
+
+    /** Returns the type of object ID, which must be in this pack. */
+    String type(ObjectId id) {
+        return typeName(typeAt(find(id)));
+    }
+
+    /** Returns the IDs of all objects of type TYPE in this pack, in
+     *  lexicographic order. */
+    List<ObjectId> ids(String type) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        int code = typeCode(type);
+        for (int k = 0; k < size(); k += 1) {
+            if (typeAt(k) == code) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the IDs of all objects of type TYPE in this pack that start
+     *  with PREFIX, in lexicographic order.  They are found by binary
+     *  search, from the first ID that could start with PREFIX. */
+    List<ObjectId> withPrefix(String prefix, String type) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        if (!ObjectId.isHexPrefix(prefix)) {
+            return result;
+        }
+        int code = typeCode(type);
+        for (int k = lowerBound(ObjectId.lowest(prefix));
+             k < size() && id(k).startsWith(prefix); k += 1) {
+            if (typeAt(k) == code) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of object ID, which must be in this pack.
+     *  Several threads may read at once: each read is made at its own
+     *  position in the shared pack file, with its own Inflater. */
+    byte[] read(ObjectId id) {
+        int k = find(id);
+        if (k < 0) {
+            throw new IllegalArgumentException("object not in pack: " + id);
+        }
+        return readAt(offsetAt(k), 0);
+    }
+
+    /** Returns the contents of the object at OFFSET in the pack, which is
+     *  DEPTH deltas away from the object originally requested. */
+    private byte[] readAt(long offset, int depth) {
+        if (depth > MAX_CHAIN) {
+            throw new IllegalArgumentException("delta chain too long");
+        }
+        try {
+            FileChannel channel = channel();
+            ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+            while (header.hasRemaining()
+                   && channel.read(header, offset + header.position()) > 0) {
+                continue;
+            }
+            header.flip();
+            int type = header.get();
+            long size = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = header.get() & 0xff;
+                size |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    break;
+                }
+            }
+            ObjectId baseId = null;
+            if (type == OBJ_DELTA) {
+                baseId = ObjectId.fromBuffer(header, header.position());
+                header.position(header.position() + ID_BYTES);
+            }
+            byte[] data =
+                inflate(channel, offset + header.position(), (int) size);
+            if (type != OBJ_DELTA) {
+                return data;
+            }
+            int k = find(baseId);
+            return Delta.apply(readAt(offsetAt(k), depth + 1), data);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("truncated pack " + _pack);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SIZE bytes inflated from the deflated data starting at
+     *  OFFSET in the pack, read through CHANNEL.  The Inflater's native
+     *  memory is freed at once rather than left to the garbage
+     *  collector. */
+    private byte[] inflate(FileChannel channel, long offset, int size)
+        throws IOException {
+        byte[] result = new byte[size];
+        ByteBuffer buf =
+            ByteBuffer.allocate(Math.min(BUFFER_SIZE, size + SLACK));
+        Inflater inflater = new Inflater();
+        try {
+            int n = 0;
+            while (n < size) {
+                if (inflater.needsInput()) {
+                    buf.clear();
+                    int read = channel.read(buf, offset);
+                    if (read <= 0) {
+                        break;
+                    }
+                    offset += read;
+                    inflater.setInput(buf.array(), 0, read);
+                }
+                int k = inflater.inflate(result, n, size - n);
+                if (k == 0 && (inflater.finished()
+                               || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != size) {
+                throw new IllegalArgumentException("truncated pack "
+                                                   + _pack);
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt pack " + _pack);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns the pack file, opening it on first use.  Only the opening
+     *  is done under the lock; reads through the channel need none. */
+    private synchronized FileChannel channel() throws IOException {
+        if (_channel == null) {
+            _channel = FileChannel.open(_pack.toPath(),
+                                        StandardOpenOption.READ);
+        }
+        return _channel;
+    }
+
+    /** Longest chain of deltas followed when reading an object. */
+    static final int MAX_CHAIN = 50;
+    /** Longest entry header: a type byte, a ten-byte length and a base
+     *  ID. */
+    private static final int MAX_HEADER = 1 + 10 + ID_BYTES;
+    /** Size of the buffer of deflated data read at a time. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Bytes read past the inflated length of an object, so that the
+     *  deflated data of most small objects is read in one go. */
+    private static final int SLACK = 64;
+
+    /** The pack file. */
+    private final File _pack;
+    /** The index file. */
+    private final File _idx;
+    /** The pack file, opened on first read. */
+    private FileChannel _channel;
+    /** Position of the fan-out table in the index. */
+    private static final int FANOUT_START = 12;
+    /** Position of the object IDs in the index. */
+    private static final int IDS_START = FANOUT_START + 4 * 256;
+
+    /** The memory-mapped index. */
+    private final MappedByteBuffer _index;
+    /** Number of objects in the pack. */
+    private final int _count;
+    /** Position of the object types in the index. */
+    private final int _typesStart;
+    /** Position of the object offsets in the index. */
+    private final int _offsetsStart;
+}
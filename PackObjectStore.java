@@ -0,0 +1,53 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+/** The objects of one type held in the packs of a PackDirectory, as an
+ *  ObjectSource.  New objects are never written to packs one at a time;
+ *  they are only added by repacking, so this is read-only.
+ *  @author Nithish Rajan
+ */
+class PackObjectStore implements ObjectSource {
+
+    /** The objects of type TYPE in PACKS. */
+    PackObjectStore(PackDirectory packs, String type) {
+        _packs = packs;
+        _type = type;
+    }
+
+    @Override
+    public boolean has(ObjectId id) {
+        return _packs.has(id, _type);
+    }
+
+    @Override
+    public InputStream open(ObjectId id) {
+        return new ByteArrayInputStream(read(id));
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        byte[] contents = _packs.read(id, _type);
+        if (contents == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return contents;
+    }
+
+    @Override
+    public List<ObjectId> withPrefix(String prefix) {
+        return _packs.withPrefix(prefix, _type);
+    }
+
+    @Override
+    public List<ObjectId> ids() {
+        return _packs.ids(_type);
+    }
+
+    /** The packs holding the objects. */
+    private final PackDirectory _packs;
+    /** Type of the objects in this store. */
+    private final String _type;
+}
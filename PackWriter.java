@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+/** Writes a set of objects into a new pack and its index (see PackFile).
+ *  Commits and trees are stored whole.  Blobs are sorted by the path they were
+ *  found at, so that successive versions of one file sit next to each
+ *  other, and each is stored as a Delta against one of the few blobs
+ *  before it whenever that is much smaller than storing it whole.
+ *  @author Nithish Rajan
+ */
+class PackWriter {
+
+    /** A writer for a pack of objects read from COMMITS, TREES and
+     *  BLOBS. */
+    PackWriter(ObjectSource commits, ObjectSource trees,
+               ObjectSource blobs) {
+        _commits = commits;
+        _trees = trees;
+        _blobs = blobs;
+    }
+
+    /** Adds commit ID to the pack. */
+    void addCommit(ObjectId id) {
+        add(new Entry(id, PackFile.OBJ_COMMIT, ""));
+    }
+
+    /** Adds tree ID to the pack. */
+    void addTree(ObjectId id) {
+        add(new Entry(id, PackFile.OBJ_TREE, ""));
+    }
+
+    /** Adds blob ID, found at PATH, to the pack. */
+    void addBlob(ObjectId id, String path) {
+        add(new Entry(id, PackFile.OBJ_BLOB, path));
+    }
+
+    /** Returns the IDs of the objects added so far. */
+    Iterable<ObjectId> ids() {
+        return _added.keySet();
+    }
+
+    /** Writes the pack and its index into directory DIR and returns the
+     *  pack file. */
+    File write(File dir) {
+        _entries.sort(Comparator.comparingInt((Entry e) -> e.type)
+                      .thenComparing(e -> e.path));
+        dir.mkdirs();
+        File tmpPack = Utils.join(dir, "tmp-pack");
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (DataOutputStream out = new DataOutputStream(
+                     new DigestOutputStream(new BufferedOutputStream(
+                         new FileOutputStream(tmpPack)), md))) {
+                out.writeInt(PackFile.PACK_MAGIC);
+                out.writeInt(PackFile.VERSION);
+                out.writeInt(_entries.size());
+                _offset = HEADER_SIZE;
+                ArrayDeque<Window> window = new ArrayDeque<>();
+                for (Entry e : _entries) {
+                    e.offset = _offset;
+                    if (e.type == PackFile.OBJ_COMMIT) {
+                        writeEntry(out, e.type, null,
+                                   _commits.read(e.id));
+                    } else if (e.type == PackFile.OBJ_TREE) {
+                        writeEntry(out, e.type, null, _trees.read(e.id));
+                    } else {
+                        writeBlob(out, e, window);
+                    }
+                }
+            }
+            byte[] checksum = md.digest();
+            try (OutputStream out = new FileOutputStream(tmpPack, true)) {
+                out.write(checksum);
+            }
+            String name = "pack-" + ObjectId.fromRaw(checksum, 0).name();
+            File pack = Utils.join(dir, name + PackDirectory.PACK_SUFFIX);
+            Files.move(tmpPack.toPath(), pack.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+            writeIndex(Utils.join(dir, name + PackDirectory.IDX_SUFFIX));
+            return pack;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            tmpPack.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes blob entry E to OUT, as a delta against a blob of WINDOW if
+     *  that pays, and then makes E the newest blob of WINDOW. */
+    private void writeBlob(DataOutputStream out, Entry e,
+                           ArrayDeque<Window> window) throws IOException {
+        byte[] contents = _blobs.read(e.id);
+        byte[] best = null;
+        Window base = null;
+        for (Window w : window) {
+            if (w.entry.depth >= MAX_DEPTH) {
+                continue;
+            }
+            int limit = best == null ? contents.length / 2 : best.length;
+            byte[] delta = Delta.create(w.contents, contents, limit);
+            if (delta != null) {
+                best = delta;
+                base = w;
+            }
+        }
+        if (best == null) {
+            writeEntry(out, PackFile.OBJ_BLOB, null, contents);
+        } else {
+            e.depth = base.entry.depth + 1;
+            writeEntry(out, PackFile.OBJ_DELTA,
+                       base.entry.id.toRaw(), best);
+        }
+        window.addFirst(new Window(e, contents));
+        if (window.size() > WINDOW) {
+            window.removeLast();
+        }
+    }
+
+    /** Writes an entry of type TYPE holding DATA to OUT, preceded by BASE
+     *  if it is a delta, and advances _offset past it. */
+    private void writeEntry(DataOutputStream out, int type, byte[] base,
+                            byte[] data) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(type);
+        Delta.writeVarint(header, data.length);
+        header.writeTo(out);
+        _offset += header.size();
+        if (base != null) {
+            out.write(base);
+            _offset += base.length;
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+            _offset += n;
+        }
+        deflater.end();
+    }
+
+    /** Writes the index of the pack just written to IDX. */
+    private void writeIndex(File idx) throws IOException {
+        Entry[] sorted = _entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, Comparator.comparing((Entry e) -> e.id));
+        File tmp = Utils.join(idx.getParentFile(), "tmp-idx");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(PackFile.IDX_MAGIC);
+            out.writeInt(PackFile.VERSION);
+            out.writeInt(sorted.length);
+            int[] fanout = new int[FANOUT];
+            for (Entry e : sorted) {
+                fanout[e.id.firstByte()] += 1;
+            }
+            for (int b = 0, total = 0; b < FANOUT; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            for (Entry e : sorted) {
+                out.write(e.id.toRaw());
+            }
+            for (Entry e : sorted) {
+                out.write(e.type);
+            }
+            for (Entry e : sorted) {
+                out.writeLong(e.offset);
+            }
+        }
+        Files.move(tmp.toPath(), idx.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Adds E to the pack unless its object is already there. */
+    private void add(Entry e) {
+        if (!_added.containsKey(e.id)) {
+            _added.put(e.id, e);
+            _entries.add(e);
+        }
+    }
+
+    /** An object to be written to the pack. */
+    private static class Entry {
+        /** An entry for object ID of pack entry type TYPE, found at
+         *  PATH. */
+        Entry(ObjectId id, int type, String path) {
+            this.id = id;
+            this.type = type;
+            this.path = path;
+        }
+
+        /** Object ID. */
+        private final ObjectId id;
+        /** Pack entry type of the object itself (never OBJ_DELTA). */
+        private final int type;
+        /** Path the object was found at, used to group similar blobs. */
+        private final String path;
+        /** Offset of the entry in the pack. */
+        private long offset;
+        /** Number of deltas between this entry and a whole object. */
+        private int depth;
+    }
+
+    /** A recently written blob, kept as a possible delta base. */
+    private static class Window {
+        /** A window slot for entry ENTRY, holding CONTENTS. */
+        Window(Entry entry, byte[] contents) {
+            this.entry = entry;
+            this.contents = contents;
+        }
+
+        /** The blob's entry. */
+        private final Entry entry;
+        /** The blob's contents. */
+        private final byte[] contents;
+    }
+
+    /** Number of preceding blobs tried as delta bases. */
+    private static final int WINDOW = 10;
+    /** Longest chain of deltas allowed. */
+    private static final int MAX_DEPTH = 10;
+    /** Number of entries in the index's fan-out table. */
+    private static final int FANOUT = 256;
+    /** Length of the pack header: magic, version and object count. */
+    private static final int HEADER_SIZE = 12;
+    /** Size of the buffer used when deflating. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Source of commit contents. */
+    private final ObjectSource _commits;
+    /** Source of tree contents. */
+    private final ObjectSource _trees;
+    /** Source of blob contents. */
+    private final ObjectSource _blobs;
+    /** Entries to write, in the order added. */
+    private final ArrayList<Entry> _entries = new ArrayList<>();
+    /** Entries to write, by object ID. */
+    private final HashMap<ObjectId, Entry> _added = new HashMap<>();
+    /** Number of bytes of the pack written so far. */
+    private long _offset;
+}
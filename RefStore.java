@@ -0,0 +1,46 @@
+package gitlet;
+
+import java.util.List;
+
+/** Where the branches of a repository, and the name of the current
+ *  branch, are kept.  Each branch binds a name to the SHA-1 ID of a
+ *  commit and is moved only if it still points where the command found
+ *  it (compare and swap).  Commands reach branches only through this
+ *  interface, so they can be kept as files of the repository (see Refs)
+ *  or, for testing commands without touching the disk, in memory.
+ *  @author Nithish Rajan
+ */
+interface RefStore {
+
+    /** Returns the commit ID NAME refers to, or null if there is no
+     *  branch NAME. */
+    ObjectId resolve(String name);
+
+    /** Points branch NAME at commit ID, provided it still points at
+     *  EXPECTED, or does not exist if EXPECTED is null.  Throws a
+     *  GitletException if it has been moved, or is being moved, by
+     *  another command, or if NAME is not a valid branch name (see
+     *  Refs.isValidName). */
+    void update(String name, ObjectId expected, ObjectId id);
+
+    /** Returns the name of the current branch, or null if there is
+     *  none. */
+    String head();
+
+    /** Makes NAME the current branch. */
+    void setHead(String name);
+
+    /** Removes branch NAME. */
+    void delete(String name);
+
+    /** Returns the names of all branches in lexicographic order. */
+    List<String> names();
+
+    /** Compacts the storage of the branches, if it can be compacted. */
+    void pack();
+
+    /** Returns true iff there is a branch NAME. */
+    default boolean exists(String name) {
+        return resolve(name) != null;
+    }
+}
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** The branches of a repository.  Each branch is a ref: a name bound to
+ *  the 40-character SHA-1 ID of a commit.  A ref is kept either as a small
+ *  loose file named after the branch, or as a line of the single sorted
+ *  packed-refs file; a loose ref overrides a packed one of the same name.
+ *
+ *  Every file here is replaced through a LockFile, never deleted and
+ *  rewritten, so readers need no locks and always see a whole file.  A
+ *  branch is moved only if it still points where the command found it
+ *  (compare and swap), so of two commands moving one branch at once, the
+ *  second fails rather than silently undoing the first.  These are the
+ *  RefStore of a repository kept on disk.
+ *  @author Nithish Rajan
+ */
+class Refs implements RefStore {
+
+    /** Name of the file in the branch directory holding the name of the
+     *  current branch.  It is never treated as a branch itself. */
+    static final String HEAD = "currBranch";
+
+    /** Refs kept as loose files in directory DIR and as lines of the
+     *  packed-refs file PACKED. */
+    Refs(File dir, File packed) {
+        _dir = dir;
+        _packedFile = packed;
+    }
+
+    @Override
+    public ObjectId resolve(String name) {
+        if (name == null || !isValidName(name)) {
+            return null;
+        }
+        File loose = Utils.join(_dir, name);
+        if (loose.isFile()) {
+            return ObjectId.fromHex(Utils.readContentsAsString(loose).trim());
+        }
+        return packed().get(name);
+    }
+
+    /** Returns true iff NAME may name a branch: it is not empty, does
+     *  not start with '.', holds no '/', '\\' or white space, and is
+     *  neither HEAD nor the name of a lock file, which are kept among the
+     *  loose refs. */
+    static boolean isValidName(String name) {
+        return !name.isEmpty() && !name.startsWith(".")
+            && !name.equals(HEAD) && !name.endsWith(LockFile.SUFFIX)
+            && !INVALID_CHARS.matcher(name).find();
+    }
+
+    @Override
+    public void update(String name, ObjectId expected, ObjectId id) {
+        if (!isValidName(name)) {
+            throw new GitletException("Not a valid branch name: " + name
+                                      + ".");
+        }
+        try (LockFile lock = new LockFile(Utils.join(_dir, name))) {
+            _packed = null;
+            ObjectId current = resolve(name);
+            if (current == null ? expected != null
+                : !current.equals(expected)) {
+                throw new GitletException("Branch " + name + " was changed "
+                                          + "by another command.");
+            }
+            lock.write(id.name().getBytes(StandardCharsets.UTF_8));
+            lock.commit();
+        }
+    }
+
+    @Override
+    public String head() {
+        File head = Utils.join(_dir, HEAD);
+        return head.isFile() ? Utils.readContentsAsString(head) : null;
+    }
+
+    @Override
+    public void setHead(String name) {
+        try (LockFile lock = new LockFile(Utils.join(_dir, HEAD))) {
+            lock.write(name.getBytes(StandardCharsets.UTF_8));
+            lock.commit();
+        }
+    }
+
+    /** Removes branch NAME, whether loose or packed.  It is first removed
+     *  from the packed-refs file, so no reader sees an older packed value
+     *  reappear. */
+    @Override
+    public void delete(String name) {
+        File loose = Utils.join(_dir, name);
+        LockFile lock = new LockFile(loose);
+        try {
+            _packed = null;
+            if (packed().containsKey(name)) {
+                try (LockFile packedLock = new LockFile(_packedFile)) {
+                    _packed = null;
+                    packed().remove(name);
+                    writePacked(packedLock);
+                }
+            }
+            loose.delete();
+        } finally {
+            lock.close();
+        }
+    }
+
+    @Override
+    public List<String> names() {
+        TreeSet<String> all = new TreeSet<>(packed().keySet());
+        all.addAll(looseNames());
+        return new ArrayList<>(all);
+    }
+
+    /** Moves every loose ref into the packed-refs file.  The packed-refs
+     *  file is written before any loose ref is removed, and a loose ref
+     *  moved meanwhile by another command is kept. */
+    @Override
+    public void pack() {
+        List<String> loose = looseNames();
+        try (LockFile packedLock = new LockFile(_packedFile)) {
+            _packed = null;
+            TreeMap<String, ObjectId> refs = packed();
+            for (String name : loose) {
+                refs.put(name, resolve(name));
+            }
+            writePacked(packedLock);
+        }
+        for (String name : loose) {
+            File file = Utils.join(_dir, name);
+            LockFile lock;
+            try {
+                lock = new LockFile(file);
+            } catch (GitletException excp) {
+                continue;
+            }
+            try {
+                if (_packed.get(name).equals(resolve(name))) {
+                    file.delete();
+                }
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /** Returns the names of the loose refs, leaving out HEAD and lock
+     *  files. */
+    private List<String> looseNames() {
+        ArrayList<String> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(_dir);
+        if (names != null) {
+            for (String name : names) {
+                if (!name.equals(HEAD) && !name.endsWith(LockFile.SUFFIX)) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of the packed-refs file as a map from branch
+     *  name to commit ID, reading it on first use. */
+    private TreeMap<String, ObjectId> packed() {
+        if (_packed == null) {
+            _packed = new TreeMap<>();
+            if (_packedFile.isFile()) {
+                String contents = Utils.readContentsAsString(_packedFile);
+                for (String line : contents.split("\n")) {
+                    if (line.length() > Utils.UID_LENGTH) {
+                        _packed.put(line.substring(Utils.UID_LENGTH + 1),
+                            ObjectId.fromHex(line.substring(0,
+                                                            Utils.UID_LENGTH)));
+                    }
+                }
+            }
+        }
+        return _packed;
+    }
+
+    /** Rewrites the packed-refs file, locked by LOCK, from _packed, one
+     *  "ID NAME" line per branch in name order. */
+    private void writePacked(LockFile lock) {
+        StringBuilder out = new StringBuilder();
+        for (String name : _packed.keySet()) {
+            out.append(_packed.get(name).name()).append(' ').append(name)
+                .append('\n');
+        }
+        lock.write(out.toString().getBytes(StandardCharsets.UTF_8));
+        lock.commit();
+    }
+
+    /** Characters no branch name may hold. */
+    private static final Pattern INVALID_CHARS =
+        Pattern.compile("[/\\\\\\s]");
+
+    /** Directory of loose refs. */
+    private final File _dir;
+    /** The packed-refs file. */
+    private final File _packedFile;
+    /** Packed refs by name, or null if not yet read. */
+    private TreeMap<String, ObjectId> _packed;
+}
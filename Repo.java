@@ -3,106 +3,299 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.List;
+import java.util.Locale;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.Collection;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class Repo implements Serializable {
     /** Current Staging Area. */
     private StagingArea _stage;
-    /** Commit List. */
-    private List<String> _commitList;
     /** String of Current Branch. */
     private String _currBranch;
-    /** List of Branches. */
-    private List<String> _branches;
-    /** Current Commit List used for Merge splitFinder. */
-    private HashMap<Commit, Integer> _cList = new HashMap<>();
-    /** Given Commit List used for Merge splitFinder. */
-    private HashMap<Commit, Integer> _oList = new HashMap<>();
     /** Current Commit. */
     private Commit _currCommit;
+    /** Packs of this repository, or null if it is not kept on disk. */
+    private PackDirectory _packs;
+    /** Commits of this repository, loaded on demand. */
+    private CommitStore _commits;
+    /** Trees of this repository, loaded on demand. */
+    private TreeStore _trees;
+    /** Blobs of this repository, large ones kept in chunks. */
+    private ChunkedObjectStore _blobs;
+    /** Branches of this repository. */
+    private RefStore _refs;
+    /** Where the index of this repository is kept. */
+    private IndexStore _index;
+    /** Index of the messages of the commits of this repository, or null
+     *  if it is not kept on disk. */
+    private MessageIndex _messages;
+    /** Directory holding the working files. */
+    private File _workDir;
+    /** Blob IDs of the working files this command has written, by
+     *  path. */
+    private final TreeMap<String, ObjectId> _written = new TreeMap<>();
 
     /** Working Directory. */
     static final File WORKINGDIR = new File(System.getProperty("user.dir"));
     /** Gitlet Directory. */
     static final File GITLETPATH = Utils.join(WORKINGDIR, ".gitlet");
-    /** Stage Directory. */
-    static final File STAGEPATH = Utils.join(GITLETPATH, "stage");
+    /** Index File. */
+    static final File INDEXPATH = Utils.join(GITLETPATH, "index");
     /** Commit Directory. */
     static final File COMMITPATH = Utils.join(GITLETPATH, "commits");
     /** Blob Directory. */
     static final File BLOBPATH = Utils.join(GITLETPATH, "blobs");
+    /** Chunked Blob Manifest Directory. */
+    static final File MANIFESTPATH = Utils.join(GITLETPATH, "manifests");
+    /** Tree Directory. */
+    static final File TREEPATH = Utils.join(GITLETPATH, "trees");
     /** Branch Directory. */
     static final File BRANCHPATH = Utils.join(GITLETPATH, "branches");
+    /** Commit Graph File. */
+    static final File COMMITGRAPHPATH = Utils.join(GITLETPATH,
+                                                   "commit-graph");
+    /** Commit Reachability Bitmaps File. */
+    static final File BITMAPPATH = Utils.join(GITLETPATH, "commit-bitmaps");
+    /** Commit Message Index File. */
+    static final File MESSAGEINDEXPATH = Utils.join(GITLETPATH,
+                                                    "message-index");
+    /** Pack Directory. */
+    static final File PACKPATH = Utils.join(GITLETPATH, "pack");
+    /** Packed Branches File. */
+    static final File PACKEDREFS = Utils.join(GITLETPATH, "packed-refs");
+    /** File System Monitor Directory. */
+    static final File FSMONITORPATH = Utils.join(GITLETPATH, "fsmonitor");
+    /** Contents of the blobs and chunks read in this process, by ID. */
+    static final ObjectCache<byte[]> BLOB_CACHE =
+        new ObjectCache<>(32 << 20, b -> b.length);
+    /** Age in milliseconds beyond which gc discards unreachable loose
+     *  objects. */
+    private static final long PRUNE_AGE = 60 * 60 * 1000;
+    /** Number of commits reachable from a new commit that may be missing
+     *  from the commit graph before it is rewritten. */
+    private static final int GRAPH_LAG = 100;
+    /** Number of commits global-log reads at a time. */
+    private static final int LOG_BATCH = 256;
+    /** Characters marking an argument to add as a glob pattern. */
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
 
 
     public Repo() {
-        if (COMMITPATH.exists()) {
-            _commitList = Utils.plainFilenamesIn(COMMITPATH);
-        }
-        if (Utils.join(BRANCHPATH, "currBranch").exists()) {
-            File bFile = Utils.join(BRANCHPATH, "currBranch");
-            _currBranch = Utils.readContentsAsString(bFile);
+        this(new PackDirectory(PACKPATH));
+    }
+
+    /** A repository whose objects are kept loose in COMMITPATH, TREEPATH
+     *  and BLOBPATH or in the packs of PACKS, with the manifests of
+     *  chunked blobs in MANIFESTPATH. */
+    private Repo(PackDirectory packs) {
+        this(new ChainedObjectStore(
+                 new PackObjectStore(packs, ObjectStore.COMMIT),
+                 new LooseObjectStore(COMMITPATH)),
+             new ChainedObjectStore(
+                 new PackObjectStore(packs, ObjectStore.TREE),
+                 new LooseObjectStore(TREEPATH)),
+             new ChunkedObjectStore(
+                 new CachedObjectStore(new ChainedObjectStore(
+                     new PackObjectStore(packs, ObjectStore.BLOB),
+                     new LooseObjectStore(BLOBPATH)), BLOB_CACHE),
+                 new LooseObjectStore(MANIFESTPATH)),
+             new Refs(BRANCHPATH, PACKEDREFS), new FileIndexStore(INDEXPATH),
+             WORKINGDIR);
+        _packs = packs;
+        _messages = new MessageIndex(MESSAGEINDEXPATH);
+        _commits.setGraph(CommitGraph.read(COMMITGRAPHPATH));
+        _commits.setBitmaps(BITMAPPATH);
+        if (_stage != null) {
+            _stage.setMonitor(new FsMonitor(WORKINGDIR, FSMONITORPATH));
         }
-        _branches = Utils.plainFilenamesIn(BRANCHPATH);
-        if (STAGEPATH.exists()) {
-            File sFile = Utils.join(STAGEPATH, "curStage");
-            _stage = Utils.readObject(sFile, StagingArea.class);
+    }
+
+    /** A repository whose commits, trees and blobs are kept in COMMITS,
+     *  TREES and BLOBS, whose branches are kept in REFS and index in
+     *  INDEX, and whose working files are under directory WORKDIR.  Given
+     *  stores kept in memory, every command but those that maintain the
+     *  files of a repository on disk (repack, gc, commit-graph and
+     *  fsmonitor) runs without touching the repository directory. */
+    Repo(ObjectStore commits, ObjectStore trees, ChunkedObjectStore blobs,
+         RefStore refs, IndexStore index, File workDir) {
+        _commits = new CommitStore(commits);
+        _trees = new TreeStore(trees);
+        _blobs = blobs;
+        _refs = refs;
+        _index = index;
+        _workDir = workDir;
+        _currBranch = _refs.head();
+        _currCommit = _commits.get(_refs.resolve(_currBranch));
+        _stage = StagingArea.read(index, workDir);
+        if (_stage == null && _currCommit != null) {
+            _stage = new StagingArea(index, workDir);
+            _stage.clear(_trees, _currCommit.getTree());
         }
-        if (BRANCHPATH.exists()) {
-            File cbFile = Utils.join(BRANCHPATH, _currBranch);
-            _currCommit = Utils.readObject(cbFile, Commit.class);
+    }
+
+    /** Returns true iff this repository has been initialized. */
+    private boolean initialized() {
+        return _currBranch != null;
+    }
+
+    /** Returns true iff this repository is kept on disk, printing a
+     *  message if not. */
+    private boolean onDisk() {
+        if (_packs == null) {
+            System.out.println("This repository is not kept on disk.");
         }
+        return _packs != null;
     }
 
     public void init() {
-        if (GITLETPATH.exists()) {
+        if (initialized() || (_packs != null && GITLETPATH.exists())) {
             System.out.println("A Gitlet version-control system "
                     + "already exists in the current directory.");
             return;
         }
-        GITLETPATH.mkdir();
-        COMMITPATH.mkdir();
-        BLOBPATH.mkdir();
-        STAGEPATH.mkdir();
-        BRANCHPATH.mkdir();
-        _commitList = new ArrayList<>();
-        TreeMap<String, String> tMap = new TreeMap<>();
+        if (_packs != null) {
+            GITLETPATH.mkdir();
+            COMMITPATH.mkdir();
+            BLOBPATH.mkdir();
+            TREEPATH.mkdir();
+            BRANCHPATH.mkdir();
+        }
+        TreeMap<String, ObjectId> tMap = new TreeMap<>();
         String s = "initial commit";
         ZonedDateTime d = ZonedDateTime.now();
-        Commit initial = new Commit(s, d, null, tMap);
-        String initialIdentification = Utils.sha1(Utils.serialize(initial));
-        File iCom = Utils.join(COMMITPATH, initialIdentification);
-        Utils.writeObject(iCom, initial);
-        File master = Utils.join(BRANCHPATH, "master");
-        Utils.writeObject(master, initial);
-        _stage = new StagingArea();
-        File stage = Utils.join(STAGEPATH, "curStage");
-        Utils.writeObject(stage, _stage);
-        File currBranch = Utils.join(BRANCHPATH, "currBranch");
-        Utils.writeContents(currBranch, "master");
-    }
-
-    public void add(String addArg) throws IOException {
-        if (!COMMITPATH.exists()) {
+        Commit initial = new Commit(s, d, null, _trees.write(tMap));
+        ObjectId id = _commits.put(initial);
+        if (_messages != null) {
+            _messages.build(Map.of(id, s));
+        }
+        _refs.update("master", null, initial.getId());
+        _stage = new StagingArea(_index, _workDir);
+        _stage.clear(_trees, initial.getTree());
+        _stage.write();
+        _refs.setHead("master");
+    }
+
+    /** Stages the files named by ADDARGS, each of which is a file, a
+     *  directory standing for all the files under it, or a glob pattern
+     *  such as *.txt.  Nothing is staged if any of them names no file,
+     *  or a file whose path is too long for the index.  The files are
+     *  hashed and stored in parallel, and the index is written once at
+     *  the end. */
+    public void add(String... addArgs) throws IOException {
+        if (!initialized()) {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         }
-        if (!Utils.join(WORKINGDIR, addArg).exists()) {
-            System.out.println("File does not exist.");
+        if (addArgs.length == 0) {
+            System.out.println("Incorrect operands.");
             return;
         }
-        File f = Utils.join(STAGEPATH, "added");
-        File cwdFile = new File(addArg);
-        byte[] contents = Utils.readContents(cwdFile);
-        File blobFile = Utils.join(BLOBPATH, Utils.sha1(contents));
-        Utils.writeContents(blobFile, contents);
-        Commit rCom = _currCommit;
-        _stage.add(addArg, rCom);
+        TreeSet<String> paths = new TreeSet<>();
+        for (String addArg : addArgs) {
+            if (!expandPath(addArg, paths)) {
+                System.out.println("File does not exist.");
+                return;
+            }
+        }
+        for (String path : paths) {
+            if (!StagingArea.fits(path)) {
+                System.out.println("File name too long.");
+                return;
+            }
+        }
+        List<String> names = new ArrayList<>(paths);
+        List<ObjectId> blobs = names.parallelStream()
+            .map(s -> _blobs.insert(ObjectStore.BLOB,
+                                    new File(_workDir, s)))
+            .collect(Collectors.toList());
+        for (int i = 0; i < names.size(); i += 1) {
+            _stage.add(names.get(i), blobs.get(i));
+        }
+        _stage.write();
+    }
+
+    /** Adds the paths, relative to the working directory, of the files
+     *  ARG names to PATHS.  ARG is a file, a directory, or a glob pattern
+     *  matched against paths relative to the working directory.  Returns
+     *  false if ARG names no file. */
+    private boolean expandPath(String arg, TreeSet<String> paths)
+        throws IOException {
+        Path root = _workDir.toPath();
+        int size = paths.size();
+        if (GLOB_CHARS.matcher(arg).find()) {
+            PathMatcher matcher =
+                FileSystems.getDefault().getPathMatcher("glob:" + arg);
+            addFilesUnder(root, p -> matcher.matches(root.relativize(p)),
+                          paths);
+            return paths.size() > size;
+        }
+        Path path = root.resolve(arg).normalize();
+        if (!path.startsWith(root) || path.startsWith(gitletDir())) {
+            return false;
+        } else if (Files.isRegularFile(path)) {
+            paths.add(workingName(path));
+            return true;
+        } else if (Files.isDirectory(path)) {
+            addFilesUnder(path, p -> true, paths);
+            return paths.size() > size;
+        }
+        return false;
+    }
+
+    /** Adds the working-directory paths of the files under DIR that
+     *  satisfy SELECT to PATHS, never entering the .gitlet directory. */
+    private void addFilesUnder(Path dir, Predicate<Path> select,
+                               TreeSet<String> paths) throws IOException {
+        Path gitlet = gitletDir();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                    BasicFileAttributes attrs) {
+                return d.equals(gitlet) ? FileVisitResult.SKIP_SUBTREE
+                    : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path f,
+                    BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && select.test(f)) {
+                    paths.add(workingName(f));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Returns the name of the file at PATH, which lies in the working
+     *  directory, relative to the working directory and with components
+     *  separated by '/'. */
+    private String workingName(Path path) {
+        String name = _workDir.toPath().relativize(path).toString();
+        return name.replace(File.separatorChar, '/');
+    }
+
+    /** Returns the path of the .gitlet directory of the working
+     *  directory. */
+    private Path gitletDir() {
+        return _workDir.toPath().resolve(GITLETPATH.getName());
     }
 
     public void commit(String comArg) {
@@ -110,229 +303,306 @@ public class Repo implements Serializable {
             System.out.println("Please enter a commit message.");
             return;
         }
-        File f = Utils.join(STAGEPATH, "added");
-        File r = Utils.join(STAGEPATH, "remove");
-        if (_stage.getAddedFiles().size() == 0
-                && (Utils.plainFilenamesIn(r) == null)) {
+        Commit rCom = recentCommit();
+        Commit added = _stage.commit(comArg, rCom, _trees);
+        if (added == null) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        Commit rCom = recentCommit();
-        Commit added = _stage.commit(comArg, rCom);
-        _stage.clear();
-        byte[] in = Utils.serialize(added);
-        String newIdentification = Utils.sha1(in);
-        File iCom = Utils.join(COMMITPATH, newIdentification);
-        Utils.writeObject(iCom, added);
-        File cBranch = Utils.join(BRANCHPATH, _currBranch);
-        cBranch.delete();
-        Utils.writeObject(cBranch, added);
+        putCommit(added);
+        _refs.update(_currBranch, rCom.getId(), added.getId());
+        _stage.write();
+        maintainCommitGraph(added.getId());
     }
 
     public void remove(String rArg) {
-        ArrayList<String> addedFiles = new ArrayList<>();
-        File f = Utils.join(STAGEPATH, "added");
-        if (f.exists()) {
-            addedFiles = new ArrayList<>(Utils.plainFilenamesIn(f));
-        } else {
-            addedFiles = new ArrayList<>();
-        }
         Commit rCom = recentCommit();
-        String sha = rCom.getBlobs().get(rArg);
-        if (sha == null && !addedFiles.contains(rArg)) {
+        ObjectId sha = _trees.lookup(rCom.getTree(), rArg);
+        if (sha == null && _stage.get(rArg) == null) {
             System.out.println("No reason to remove the file.");
             return;
         }
-        _stage.remove(rArg, rCom);
+        _stage.remove(rArg, _trees, rCom.getTree());
+        _stage.write();
     }
 
     public void log() {
-        Commit rCom = recentCommit();
+        logFrom(recentCommit());
+    }
+
+    /** Prints the history of the commit whose ID, perhaps abbreviated,
+     *  is ARG, or of the current commit if ARG is null, leaving out the
+     *  commits that did not change PATH, unless it is null. */
+    public void log(String arg, String path) {
+        Commit start = arg == null ? recentCommit()
+            : _commits.get(_commits.resolve(arg));
+        if (start == null) {
+            System.out.println("No commit with that id exists.");
+        } else if (path == null) {
+            logFrom(start);
+        } else {
+            logPath(start, path);
+        }
+    }
+
+    /** Prints RCOM and its first-parent ancestors, newest first. */
+    private void logFrom(Commit rCom) {
         while (rCom != null) {
-            System.out.println("===");
-            System.out.println("commit " + rCom.getSHA());
-            if (rCom.getMerge()) {
-                String first = rCom.getParent2()[0].getSHA();
-                System.out.println("Merge: " + first.substring(0, 7)
-                        + " " + rCom.getParent2()[1].getSHA().substring(0, 7));
-            }
-            System.out.println("Date: " + rCom.getstringStamp());
-            System.out.println(rCom.getMessage());
-            System.out.println();
+            printLog(rCom);
             if (rCom.getMerge()) {
-                rCom = rCom.getParent2()[0];
+                rCom = _commits.get(rCom.getParent2()[0]);
             } else {
-                rCom = rCom.getParent();
+                rCom = _commits.get(rCom.getParent());
             }
         }
     }
 
-    public void glog() {
-        List<String> commitList = Utils.plainFilenamesIn(COMMITPATH);
-        for (String s : commitList) {
-            File f = Utils.join(COMMITPATH, s);
-            Commit com = Utils.readObject(f, Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + com.getSHA());
-            System.out.println("Date: " + com.getstringStamp());
-            System.out.println(com.getMessage());
-            System.out.println();
+    /** Prints those of START and its first-parent ancestors, newest
+     *  first, that changed PATH, a file or a directory, relative to their
+     *  first parents.  Commits whose changed-path filters in the commit
+     *  graph rule PATH out are passed over without reading them or their
+     *  trees; the others are checked by comparing PATH in their trees. */
+    private void logPath(Commit start, String path) {
+        String name = path.replace(File.separatorChar, '/');
+        while (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        while (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        long key = CommitGraph.pathKey(name);
+        ObjectId id = start.getId();
+        while (id != null) {
+            ObjectId[] parents = _commits.parents(id);
+            ObjectId parent = parents.length == 0 ? null : parents[0];
+            if (_commits.mayHaveChanged(id, key)
+                && changed(_commits.get(id), _commits.get(parent), name)) {
+                printLog(_commits.get(id));
+            }
+            id = parent;
         }
     }
 
+    /** Returns true iff the file or directory PATH differs between
+     *  commits COMMIT and PARENT, which may be null for no commit. */
+    private boolean changed(Commit commit, Commit parent, String path) {
+        ObjectId tree = commit.getTree();
+        ObjectId old = parent == null ? null : parent.getTree();
+        return !Objects.equals(_trees.lookup(tree, path),
+                               _trees.lookup(old, path))
+            || _trees.executable(tree, path) != _trees.executable(old, path)
+            || !Objects.equals(_trees.lookupDir(tree, path),
+                               _trees.lookupDir(old, path));
+    }
+
+    /** Prints the log entry of commit COM. */
+    private void printLog(Commit com) {
+        System.out.println("===");
+        System.out.println("commit " + com.getSHA());
+        if (com.getMerge()) {
+            String first = com.getParent2()[0].name();
+            System.out.println("Merge: " + first.substring(0, 7)
+                    + " " + com.getParent2()[1].name().substring(0, 7));
+        }
+        System.out.println("Date: " + com.getstringStamp());
+        System.out.println(com.getMessage());
+        System.out.println();
+    }
+
+    /** Prints the commits of the repository in order of ID: those made
+     *  at or after SINCE, in seconds since the epoch, and no more than
+     *  LIMIT of them unless LIMIT is negative.  Commits are read a batch
+     *  at a time, in parallel, without being kept, and each batch is
+     *  printed before the next is read, so output starts at once and
+     *  reading stops as soon as LIMIT commits are printed.  Commits the
+     *  commit graph shows to be too old are not read at all. */
+    public void glog(int limit, long since) {
+        List<ObjectId> ids = _commits.ids();
+        int shown = 0;
+        for (int i = 0; i < ids.size() && shown != limit; i += LOG_BATCH) {
+            List<Commit> batch =
+                ids.subList(i, Math.min(i + LOG_BATCH, ids.size()))
+                .parallelStream()
+                .filter(id -> _commits.maybeSince(id, since))
+                .map(_commits::load)
+                .filter(c -> c.getTime() >= since)
+                .collect(Collectors.toList());
+            StringBuilder out = new StringBuilder();
+            for (int k = 0; k < batch.size() && shown != limit; k += 1) {
+                Commit com = batch.get(k);
+                out.append("===\n");
+                out.append("commit ").append(com.getSHA()).append("\n");
+                out.append("Date: ").append(com.getstringStamp())
+                    .append("\n");
+                out.append(com.getMessage()).append("\n\n");
+                shown += 1;
+            }
+            System.out.print(out);
+            System.out.flush();
+        }
+    }
+
+    /** Prints the IDs of the commits whose message is ARG. */
     public void find(String arg) {
-        ArrayList<Commit> commitList = new ArrayList<>();
-        for (String s : _commitList) {
-            File f = Utils.join(COMMITPATH, s);
-            Commit c = Utils.readObject(f, Commit.class);
-            commitList.add(c);
-        }
-        ArrayList<String> goodMessages = new ArrayList<>();
-        for (Commit c : commitList) {
-            if (c.getMessage().equals(arg)) {
-                goodMessages.add(c.getSHA());
+        printFound(_messages == null ? _commits.ids()
+                   : messages().withMessage(arg),
+                   c -> c.getMessage().equals(arg));
+    }
+
+    /** Prints the IDs of the commits whose messages contain TEXT,
+     *  ignoring case. */
+    public void findContaining(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        Collection<ObjectId> candidates =
+            _messages == null ? null : messages().containing(text);
+        if (candidates == null) {
+            candidates = _commits.ids();
+        }
+        printFound(candidates,
+                   c -> c.getMessage().toLowerCase(Locale.ROOT)
+                   .contains(lower));
+    }
+
+    /** Prints, in order, the IDs of those commits among CANDIDATES that
+     *  MATCHES accepts.  Only the candidates are read. */
+    private void printFound(Collection<ObjectId> candidates,
+                            Predicate<Commit> matches) {
+        boolean found = false;
+        for (ObjectId id : candidates) {
+            if (_commits.contains(id) && matches.test(_commits.load(id))) {
+                System.out.println(id.name());
+                found = true;
             }
         }
-        if (goodMessages.size() == 0) {
+        if (!found) {
             System.out.println("Found no commit with that message.");
-            return;
         }
-        for (String t : goodMessages) {
-            System.out.println(t);
+    }
+
+    /** Returns the message index, building it from every commit first if
+     *  it does not exist. */
+    private MessageIndex messages() {
+        if (!_messages.exists()) {
+            TreeMap<ObjectId, String> messages = new TreeMap<>();
+            for (ObjectId id : _commits.ids()) {
+                messages.put(id, _commits.load(id).getMessage());
+            }
+            _messages.build(messages);
         }
+        return _messages;
     }
 
     public void status() {
-        if (!COMMITPATH.exists()) {
+        if (!initialized()) {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         }
-        List<String> branches = Utils.plainFilenamesIn(BRANCHPATH);
-        File added = Utils.join(STAGEPATH, "added");
-        File removed = Utils.join(STAGEPATH, "remove");
-        List<String> stagedFiles = Utils.plainFilenamesIn(added);
-        List<String> removedFiles = Utils.plainFilenamesIn(removed);
+        List<String> branches = _refs.names();
+        TreeMap<String, ObjectId> changes =
+            _stage.changes(_trees, _currCommit.getTree());
+        List<String> stagedFiles = StagingArea.getAddedFiles(changes);
+        List<String> removedFiles = StagingArea.getRemovedFiles(changes);
         System.out.println("=== Branches ===");
         System.out.println("*" + _currBranch);
         for (String a: branches) {
-            if (!a.equals("currBranch") && !a.equals(_currBranch)) {
+            if (!a.equals(_currBranch)) {
                 System.out.println(a);
             }
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        if (stagedFiles != null) {
-            for (String b : stagedFiles) {
-                System.out.println(b);
-            }
+        for (String b : stagedFiles) {
+            System.out.println(b);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        if (removedFiles != null) {
-            for (String c: removedFiles) {
-                System.out.println(c);
-            }
+        for (String c: removedFiles) {
+            System.out.println(c);
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String d : _stage.getModifiedFiles()) {
+            System.out.println(d);
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
-
+        for (String e : _stage.getUntrackedFiles(_workDir)) {
+            System.out.println(e);
+        }
+        System.out.println();
+        _stage.writeCache();
     }
 
     public void fileCheck(String file) {
         Commit rCom = recentCommit();
-        if (rCom.getBlobs().get(file) == null) {
+        if (_trees.lookup(rCom.getTree(), file) == null) {
             throw new GitletException("File does not exist in that commit.");
         }
         file2comCheck(_currCommit.getSHA(), file);
     }
 
     public void file2comCheck(String comName, String fileName) {
-        String com = comName;
-        if (comName.length() == 8) {
-            for (String s : _commitList) {
-                if (s.startsWith(comName)) {
-                    com = s;
-                }
-            }
-        }
-        File commitPath = Utils.join(COMMITPATH, com);
-        if (!commitPath.exists()) {
+        Commit specCommit = _commits.get(_commits.resolve(comName));
+        if (specCommit == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit specCommit = Utils.readObject(commitPath, Commit.class);
-        String afi = specCommit.getBlobs().get(fileName);
+        ObjectId afi = _trees.lookup(specCommit.getTree(), fileName);
         if (afi == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        byte[] content = Utils.readContents(Utils.join(BLOBPATH, afi));
-        File f = new File(fileName);
-        f.delete();
-        Utils.writeContents(f, content);
+        checkoutFile(afi, fileName,
+                     _trees.executable(specCommit.getTree(), fileName));
+        recordWritten();
+        _stage.writeCache();
     }
 
     public void branchCheck(String branch) {
-        File branchFile = Utils.join(BRANCHPATH, branch);
-        File added = Utils.join(STAGEPATH, "added");
-        List<String> addFiles = Utils.plainFilenamesIn(added);
-        if (!branchFile.exists()) {
+        ObjectId branchId = _refs.resolve(branch);
+        if (branchId == null) {
             System.out.println("No such branch exists.");
             return;
         }
         if (branch.equals(_currBranch)) {
             System.out.println("No need to checkout the current branch.");
         }
-        Commit specCom = Utils.readObject(branchFile, Commit.class);
-        Set<String> specNames = specCom.getBlobs().keySet();
-        String[] spckeySet = specNames.toArray(new String[specNames.size()]);
-        Set<String> pmn = _currCommit.getBlobs().keySet();
-        String[] rcomkeySet = pmn.toArray(new String[pmn.size()]);
-        List<String> workingFiles = Utils.plainFilenamesIn(WORKINGDIR);
+        Commit specCom = _commits.get(branchId);
+        ObjectId current = _currCommit.getTree();
+        List<String> addFiles = StagingArea.getAddedFiles(
+            _stage.changes(_trees, current));
+        List<String> workingFiles = _stage.getUntrackedFiles(_workDir);
         for (int x = 0; x < workingFiles.size(); x++) {
             String fName = workingFiles.get(x);
-            if (!pmn.contains(fName)) {
+            if (_trees.lookup(current, fName) == null) {
                 if (addFiles.size() == 0) {
                     System.out.println("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
                 }
             }
         }
-        for (int x = 0; x < _currCommit.getBlobs().keySet().size(); x++) {
-            if (!specNames.contains(rcomkeySet[x])) {
-                File cray = new File(rcomkeySet[x]);
-                Utils.restrictedDelete(cray);
-            }
-        }
-        for (int x = 0; x < spckeySet.length; x++) {
-            String s = specCom.getBlobs().get(spckeySet[x]);
-            File blob = Utils.join(BLOBPATH, s);
-            byte[] contents = Utils.readContents(blob);
-            File newFile = new File(spckeySet[x]);
-            Utils.restrictedDelete(newFile);
-            Utils.writeContents(newFile, contents);
-        }
-        _stage.clear();
-        File currBranch = Utils.join(BRANCHPATH, "currBranch");
-        currBranch.delete();
-        Utils.writeContents(currBranch, branch);
+        TreeSet<String> changed = new TreeSet<>(addFiles);
+        changed.addAll(_stage.getModifiedPaths());
+        changed.removeIf(p -> _trees.lookup(specCom.getTree(), p) == null);
+        checkoutTree(_currCommit, specCom, changed);
+        resetIndex(specCom.getTree());
+        _refs.setHead(branch);
     }
 
     public void branch(String arg) {
-        List<String> branchList = Utils.plainFilenamesIn(BRANCHPATH);
-        if (branchList.contains(arg)) {
+        if (!Refs.isValidName(arg)) {
+            System.out.println("Not a valid branch name.");
+            return;
+        }
+        if (_refs.exists(arg)) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        File newBranch = Utils.join(BRANCHPATH, arg);
-        Utils.writeObject(newBranch, _currCommit);
+        _refs.update(arg, null, _currCommit.getId());
     }
 
     public void rBranch(String arg) {
-        File f = Utils.join(BRANCHPATH, arg);
-        if (!f.exists()) {
+        if (!_refs.exists(arg)) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -340,21 +610,21 @@ public class Repo implements Serializable {
             System.out.println("Cannot remove the current branch.");
             return;
         }
-        f.delete();
+        _refs.delete(arg);
     }
 
     public void reset(String arg) {
-        if (!_commitList.contains(arg)) {
+        Commit c = _commits.get(_commits.resolve(arg));
+        if (c == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        File added = Utils.join(STAGEPATH, "added");
-        List<String> addFiles = Utils.plainFilenamesIn(added);
-        File cFile = Utils.join(COMMITPATH, arg);
-        Commit c = Utils.readObject(cFile, Commit.class);
-        List<String> workingFiles = Utils.plainFilenamesIn(WORKINGDIR);
+        ObjectId current = _currCommit.getTree();
+        List<String> addFiles = StagingArea.getAddedFiles(
+            _stage.changes(_trees, current));
+        List<String> workingFiles = _stage.getUntrackedFiles(_workDir);
         for (String s : workingFiles) {
-            if (!recentCommit().getBlobs().containsKey(s)) {
+            if (_trees.lookup(current, s) == null) {
                 if (!addFiles.contains(s)) {
                     System.out.println("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
@@ -362,255 +632,147 @@ public class Repo implements Serializable {
                 }
             }
         }
-        for (String s : recentCommit().getBlobs().keySet()) {
-            if (!c.getBlobs().containsKey(s)) {
-                File f = new File(s);
-                remove(s);
-                Utils.restrictedDelete(f);
-            }
-        }
-        if (addFiles != null) {
-            for (String t : addFiles) {
-                if (!c.getBlobs().containsKey(t)) {
-                    File f = new File(t);
-                    Utils.restrictedDelete(t);
-                    File addedFile = Utils.join(added, t);
-                    addedFile.delete();
-                }
-            }
-        }
-        Set<String> keySet = c.getBlobs().keySet();
-        String[] blobList = keySet.toArray(new String[keySet.size()]);
-        for (String s : blobList) {
-            file2comCheck(c.getSHA(), s);
-        }
-        _stage.clear();
-        File cBranch = Utils.join(BRANCHPATH, _currBranch);
-        cBranch.delete();
-        Utils.writeObject(cBranch, c);
+        TreeSet<String> changed = new TreeSet<>(addFiles);
+        changed.addAll(_stage.getModifiedPaths());
+        checkoutTree(_currCommit, c, changed);
+        resetIndex(c.getTree());
+        _refs.update(_currBranch, _currCommit.getId(), c.getId());
     }
 
     public void merge(String arg) {
-        File bArg = Utils.join(BRANCHPATH, arg);
         if (mergeError(arg)) {
             return;
         }
-        Commit otherCommit = Utils.readObject(bArg, Commit.class);
-        Commit splitPoint = splitFinder(arg);
-        if (otherCommit.getParent().getSHA().equals(_currCommit.getSHA())) {
-            splitPoint = _currCommit;
-        }
-        if (otherCommit.getSHA().equals(splitPoint.getSHA())) {
+        Commit otherCommit = _commits.get(_refs.resolve(arg));
+        if (_commits.isAncestor(otherCommit.getId(), _currCommit.getId())) {
             System.out.println("Given branch is an ancestor "
                     + "of the current branch.");
             return;
         }
-        if (splitPoint.equals(_currCommit)) {
+        if (_commits.isAncestor(_currCommit.getId(), otherCommit.getId())) {
             branchCheck(arg);
             System.out.println("Current branch fast-forwarded.");
+            return;
         }
+        Commit splitPoint = splitFinder(arg);
         Commit r = mergeHelper(_currCommit, otherCommit, splitPoint, arg);
-        byte[] b = Utils.serialize(r);
-        File f = Utils.join(COMMITPATH, Utils.sha1(b));
-        Utils.writeObject(f, r);
-        File branch = Utils.join(BRANCHPATH, _currBranch);
-        branch.delete();
-        Utils.writeObject(branch, r);
-        r.setMerge();
+        putCommit(r);
+        _refs.update(_currBranch, _currCommit.getId(), r.getId());
+        resetIndex(r.getTree());
+        maintainCommitGraph(r.getId());
+    }
+
+    /** Makes the index match TREE, recording the file data of the working
+     *  files this command wrote, and writes it. */
+    private void resetIndex(ObjectId tree) {
+        _stage.clear(_trees, tree);
+        recordWritten();
+        _stage.write();
+    }
+
+    /** Records in the index the file data of the working files this
+     *  command has written since last doing so. */
+    private void recordWritten() {
+        for (Map.Entry<String, ObjectId> e : _written.entrySet()) {
+            _stage.written(e.getKey(), e.getValue());
+        }
+        _written.clear();
     }
 
+    /** Returns the commit merging OTHERCOMMIT, the head of branch ARG,
+     *  into CURRCOMMIT, whose latest common ancestor is SPLITPOINT, and
+     *  updates the working files to match.  Only the files that differ
+     *  between SPLITPOINT and OTHERCOMMIT can need changing, and they are
+     *  found by comparing trees, skipping subtrees the two share.  A file
+     *  takes the mode of OTHERCOMMIT if that changed it, and otherwise
+     *  keeps that of CURRCOMMIT. */
     private Commit mergeHelper(Commit currCommit, Commit otherCommit,
                                Commit splitPoint, String arg) {
-        TreeMap<String, String> cBlobs = currCommit.getBlobs();
-        TreeMap<String, String> oBlobs = otherCommit.getBlobs();
-        TreeMap<String, String> sBlobs = splitPoint.getBlobs();
+        TreeMap<String, ObjectId[]> theirs =
+            _trees.diff(splitPoint.getTree(), otherCommit.getTree());
+        TreeMap<String, ObjectId[]> ours =
+            _trees.diff(splitPoint.getTree(), currCommit.getTree());
+        TreeMap<String, ObjectId> changes = new TreeMap<>();
+        HashSet<String> executables = new HashSet<>();
         boolean conflict = false;
-        TreeMap<String, String> newBlobs = new TreeMap<>();
-        for (String s : splitPoint.getBlobs().keySet()) {
-            File f = new File(s);
-            if (!cBlobs.containsKey(s) && !oBlobs.containsKey(s)) {
-                continue;
-            }
-            if (sBlobs.get(s).equals(cBlobs.get(s))
-                    && !oBlobs.containsKey(s)) {
-                Utils.restrictedDelete(f);
-                continue;
-            }
-            if (sBlobs.get(s).equals(oBlobs.get(s))
-                    && !cBlobs.containsKey(s)) {
-                continue;
+        for (Map.Entry<String, ObjectId[]> e : theirs.entrySet()) {
+            String s = e.getKey();
+            ObjectId base = e.getValue()[0], oBlob = e.getValue()[1];
+            ObjectId[] mine = ours.get(s);
+            ObjectId cBlob = mine == null ? base : mine[1];
+            boolean cExec = _trees.executable(currCommit.getTree(), s);
+            boolean oExec = _trees.executable(otherCommit.getTree(), s);
+            boolean exec =
+                oExec != _trees.executable(splitPoint.getTree(), s)
+                ? oExec : cExec;
+            ObjectId blob;
+            if (Objects.equals(base, oBlob) || Objects.equals(cBlob, oBlob)) {
+                blob = cBlob;
+            } else if (Objects.equals(base, cBlob)) {
+                blob = oBlob;
+            } else {
+                conflict = true;
+                blob = mergeHelper2(s, cBlob, oBlob, exec);
             }
-            if (!sBlobs.get(s).equals(oBlobs.get(s))
-                    && sBlobs.get(s).equals(cBlobs.get(s))) {
-                newBlobs.put(s, oBlobs.get(s));
-                Utils.restrictedDelete(f);
-                File blob = Utils.join(BLOBPATH, oBlobs.get(s));
-                Utils.writeContents(f, Utils.readContents(blob));
+            if (Objects.equals(blob, cBlob)
+                && (blob == null || exec == cExec)) {
                 continue;
             }
-            if (!sBlobs.get(s).equals(oBlobs.get(s))
-                    && !sBlobs.get(s).equals(cBlobs.get(s))) {
-                if (!cBlobs.get(s).equals(oBlobs.get(s))) {
-                    conflict = true;
-                    String cBlobCon = "";
-                    String oBlobCon = "";
-                    if (cBlobs.get(s) == null) {
-                        File sup = Utils.join(BLOBPATH, oBlobs.get(s));
-                        oBlobCon = Utils.readContentsAsString(sup);
-                    } else if (oBlobs.get(s) == null) {
-                        File sup = Utils.join(BLOBPATH, cBlobs.get(s));
-                        cBlobCon = Utils.readContentsAsString(sup);
-                    } else {
-                        File sup = Utils.join(BLOBPATH, cBlobs.get(s));
-                        File sups = Utils.join(BLOBPATH, oBlobs.get(s));
-                        cBlobCon = Utils.readContentsAsString(sup);
-                        oBlobCon = Utils.readContentsAsString(sups);
-                    }
-                    Utils.restrictedDelete(f);
-                    String fileContent = "<<<<<<< HEAD\n" + cBlobCon
-                            + "=======\n" + oBlobCon + ">>>>>>>\n";
-                    Utils.writeContents(f, fileContent);
-                }
-            }
-            if (cBlobs.get(s).equals(sBlobs.get(s))
-                    && sBlobs.get(s).equals(oBlobs.get(s))) {
-                newBlobs.put(s, cBlobs.get(s));
-            }
-        }
-        return mergeHelper2(currCommit, otherCommit,
-                splitPoint, arg, newBlobs, conflict);
-    }
-
-    public Commit mergeHelper2(Commit currCommit, Commit otherCommit,
-                               Commit splitPoint, String arg,
-                               TreeMap<String, String> blobs,
-                               boolean isConflict) {
-        TreeMap<String, String> cBlobs = currCommit.getBlobs();
-        TreeMap<String, String> oBlobs = otherCommit.getBlobs();
-        TreeMap<String, String> sBlobs = splitPoint.getBlobs();
-        Set<String> cFileNames = currCommit.getBlobs().keySet();
-        Set<String> oFileNames = otherCommit.getBlobs().keySet();
-        Set<String> sfn = splitPoint.getBlobs().keySet();
-        for (String c : cFileNames) {
-            if (!sBlobs.containsKey(c) && !oBlobs.containsKey(c)) {
-                blobs.put(c, cBlobs.get(c));
-            } else if (!sBlobs.containsKey(c)) {
-                if (!oBlobs.get(c).equals(cBlobs.get(c))) {
-                    isConflict = true;
-                    File f = new File(c);
-                    File sup = Utils.join(BLOBPATH, cBlobs.get(c));
-                    File sups = Utils.join(BLOBPATH, oBlobs.get(c));
-                    String cBlobCon = Utils.readContentsAsString(sup);
-                    String oBlobCon = Utils.readContentsAsString(sups);
-                    Utils.restrictedDelete(f);
-                    String fileContent = "<<<<<<< HEAD\n" + cBlobCon
-                            + "=======\n" + oBlobCon + ">>>>>>>\n";
-                    Utils.writeContents(f, fileContent);
-                    blobs.put(c, Utils.sha1(Utils.readContents(f)));
-                }
-            }
-            if (sBlobs.containsKey(c)) {
-                if (!sBlobs.get(c).equals(cBlobs.get(c))
-                        && !oBlobs.containsKey(c)) {
-                    isConflict = true;
-                    File f = new File(c);
-                    File sup = Utils.join(BLOBPATH, cBlobs.get(c));
-                    String cBlobCon = Utils.readContentsAsString(sup);
-                    Utils.restrictedDelete(f);
-                    String fileContent = "<<<<<<< HEAD\n" + cBlobCon
-                            + "=======\n" + ">>>>>>>\n";
-                    Utils.writeContents(f, fileContent);
-                    blobs.put(c, Utils.sha1(Utils.readContents(f)));
-                }
+            changes.put(s, blob);
+            if (exec) {
+                executables.add(s);
             }
-        }
-        for (String o : oFileNames) {
-            if (!sfn.contains(o) && !cFileNames.contains(o)) {
-                blobs.put(o, oBlobs.get(o));
-                File newFile = new File(o);
-                File blobFile = Utils.join(BLOBPATH, oBlobs.get(o));
-                Utils.restrictedDelete(newFile);
-                byte[] contents = Utils.readContents(blobFile);
-                Utils.writeContents(newFile, contents);
+            if (blob == null) {
+                deleteWorkingFile(_workDir, s);
+            } else if (Objects.equals(blob, cBlob)
+                       || Objects.equals(blob, oBlob)) {
+                checkoutFile(blob, s, exec);
             }
         }
-        if (isConflict) {
+        if (conflict) {
             System.out.println("Encountered a merge conflict.");
         }
         String s = "Merged " + arg + " " + "into " + _currBranch + ".";
         ZonedDateTime d = ZonedDateTime.now();
-        return new Commit(s, d, _currCommit, otherCommit, blobs);
+        return new Commit(s, d, _currCommit.getId(), otherCommit.getId(),
+                _trees.edit(currCommit.getTree(), changes, executables));
     }
 
-    public Commit splitFinder(String givenBranch) {
-        File f = Utils.join(BRANCHPATH, givenBranch);
-        Commit c = _currCommit;
-        Commit otherCommit = Utils.readObject(f, Commit.class);
-        _cList = new HashMap<>();
-        _oList = new HashMap<>();
-        listMaker(c, true, 0);
-        listMaker(otherCommit, false, 0);
-        HashMap<Commit, Integer> split = new HashMap<>();
-        Commit firstCom = null;
-        for (Commit cCom : _cList.keySet()) {
-            for (Commit oCom : _oList.keySet()) {
-                if (cCom.getSHA().equals(oCom.getSHA())) {
-                    if (split.size() == 0) {
-                        split.put(oCom, _oList.get(oCom));
-                        firstCom = oCom;
-                    } else if (split.get(firstCom) > _oList.get(oCom)) {
-                        split = new HashMap<>();
-                        split.put(oCom, _oList.get(oCom));
-                        firstCom = oCom;
-                    }
-                }
-            }
+    /** Writes working file NAME showing the conflict between blob CBLOB
+     *  in the current branch and OBLOB in the given branch, either of
+     *  which may be null for a missing file, making it executable if
+     *  EXEC, stores it, and returns its blob ID. */
+    private ObjectId mergeHelper2(String name, ObjectId cBlob,
+                                  ObjectId oBlob, boolean exec) {
+        String cBlobCon = cBlob == null ? "" : _blobs.readAsString(cBlob);
+        String oBlobCon = oBlob == null ? "" : _blobs.readAsString(oBlob);
+        String fileContent = "<<<<<<< HEAD\n" + cBlobCon
+                + "=======\n" + oBlobCon + ">>>>>>>\n";
+        File f = Utils.join(_workDir, name);
+        f.getParentFile().mkdirs();
+        Utils.writeContents(f, fileContent);
+        if (exec) {
+            f.setExecutable(true, false);
         }
-        Set<Commit> s = split.keySet();
-        Commit[] sup = s.toArray(new Commit[s.size()]);
-        return sup[0];
+        ObjectId result = _blobs.insert(ObjectStore.BLOB, f);
+        _written.put(name, result);
+        return result;
     }
 
-    public void listMaker(Commit intended, boolean commitBool, int length) {
-        if (intended == null) {
-            return;
-        }
-        if (commitBool) {
-            _cList.put(intended, length);
-            if (!intended.getMerge()) {
-                listMaker(intended.getParent(), true, length + 1);
-            } else {
-                Commit[] parents = intended.getParent2();
-                listMaker(parents[0], true, length + 1);
-                listMaker(parents[1], true, length + 1);
-            }
-        } else {
-            _oList.put(intended, length);
-            if (!intended.getMerge()) {
-                listMaker(intended.getParent(), false, length + 1);
-            } else {
-                Commit[] parents = intended.getParent2();
-                listMaker(parents[0], false, length + 1);
-                listMaker(parents[1], false, length + 1);
-            }
-        }
+    /** Returns the latest common ancestor of the current commit and the
+     *  head of branch GIVENBRANCH. */
+    public Commit splitFinder(String givenBranch) {
+        ObjectId other = _refs.resolve(givenBranch);
+        return _commits.get(_commits.mergeBase(_currCommit.getId(), other));
     }
 
     public boolean mergeError(String givenBranch) {
-        File f = Utils.join(STAGEPATH, "added");
-        File r = Utils.join(STAGEPATH, "remove");
-        ArrayList<String> addedFiles = new ArrayList<String>();
-        if (f.exists()) {
-            addedFiles = _stage.getAddedFiles();
-        }
-        List<String> s = (Utils.plainFilenamesIn(r));
-        if (s != null) {
-            if (addedFiles.size() != 0 || s.size() != 0) {
-                System.out.println("You have uncommitted changes.");
-                return true;
-            }
+        ObjectId head = _currCommit.getTree();
+        if (_stage.hasChanges(_trees, head)) {
+            System.out.println("You have uncommitted changes.");
+            return true;
         }
-        if (!_branches.contains(givenBranch)) {
+        if (!_refs.exists(givenBranch)) {
             System.out.println("A branch with that name does not exist.");
             return true;
         }
@@ -618,10 +780,10 @@ public class Repo implements Serializable {
             System.out.println("Cannot merge a branch with itself.");
             return true;
         }
-        List<String> workingFiles = Utils.plainFilenamesIn(WORKINGDIR);
+        List<String> workingFiles = _stage.getUntrackedFiles(_workDir);
         for (int x = 0; x < workingFiles.size(); x++) {
             String fName = workingFiles.get(x);
-            if (!_currCommit.getBlobs().keySet().contains(fName)) {
+            if (_trees.lookup(head, fName) == null) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
@@ -629,30 +791,280 @@ public class Repo implements Serializable {
         return false;
     }
 
+    /** Runs a file system monitor for the working directory until killed,
+     *  so that status and the checks for untracked files need examine
+     *  only what changed.  Meant to be started in the background. */
+    public void fsmonitor() {
+        if (!initialized()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        } else if (!onDisk()) {
+            return;
+        }
+        new FsMonitor(WORKINGDIR, FSMONITORPATH).run();
+    }
+
+    /** Returns a report of the use of the caches of commits, trees and
+     *  blobs. */
+    static String cacheStats() {
+        return "commits: " + CommitStore.CACHE + "\n"
+            + "trees: " + TreeStore.CACHE + "\n"
+            + "blobs: " + BLOB_CACHE;
+    }
+
+    /** Stores commit C, adding its message to the message index if
+     *  there is one. */
+    private void putCommit(Commit c) {
+        ObjectId id = _commits.put(c);
+        if (_messages != null) {
+            _messages.add(id, c.getMessage());
+        }
+    }
+
     public Commit recentCommit() {
-        File f = Utils.join(BRANCHPATH, _currBranch);
-        return Utils.readObject(f, Commit.class);
+        return _commits.get(_refs.resolve(_currBranch));
     }
 
-    public ArrayList<String> branchCommits() {
-        ArrayList<String> rList = new ArrayList<>();
-        for (String s : _branches) {
-            File f = Utils.join(BRANCHPATH, s);
-            if (!s.equals("currBranch")) {
-                rList.add(Utils.readContentsAsString(f));
-            }
+    public ArrayList<ObjectId> branchCommits() {
+        ArrayList<ObjectId> rList = new ArrayList<>();
+        for (String s : _refs.names()) {
+            rList.add(_refs.resolve(s));
         }
         return rList;
     }
 
+    /** Packs the objects of the repository into one new pack, replacing
+     *  the old packs, and removes the loose copies of the objects packed.
+     *  The objects the branches and the index refer to are packed
+     *  together, in an order that suits delta compression, and then
+     *  everything else the old packs held, so nothing is ever lost by
+     *  repacking; only gc discards objects. */
+    public void repack() {
+        if (!initialized()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        } else if (!onDisk()) {
+            return;
+        }
+        pack(false);
+    }
+
+    /** Packs the objects the branches and the index refer to, as for
+     *  repack, and discards all others: those in the old packs, and the
+     *  loose ones last modified more than PRUNE_AGE ago, since newer ones
+     *  may belong to a command still running. */
+    public void gc() {
+        if (!initialized()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        } else if (!onDisk()) {
+            return;
+        }
+        pack(true);
+    }
+
+    /** Writes a new pack of the objects reachable from the branches and
+     *  the index, and of the rest of the objects in the old packs unless
+     *  PRUNE, and then deletes the old packs and the loose copies of the
+     *  objects packed.  If PRUNE, also deletes the unreachable loose
+     *  objects older than PRUNE_AGE. */
+    private void pack(boolean prune) {
+        PackWriter writer = new PackWriter(_commits.objects(),
+                                           _trees.objects(), _blobs);
+        HashSet<ObjectId> seenTrees = new HashSet<>();
+        HashSet<ObjectId> chunked = new HashSet<>();
+        for (ObjectId id : _commits.reachable(branchCommits()).ids()) {
+            writer.addCommit(id);
+            packTree(writer, _commits.get(id).getTree(), "", seenTrees,
+                     chunked);
+        }
+        for (Map.Entry<String, ObjectId> e
+                 : _stage.changes(_trees, _currCommit.getTree()).entrySet()) {
+            if (e.getValue() != null) {
+                packBlob(writer, e.getValue(), e.getKey(), chunked);
+            }
+        }
+        List<PackFile> oldPacks = new ArrayList<>(_packs.packs());
+        if (!prune) {
+            for (PackFile old : oldPacks) {
+                old.ids(ObjectStore.COMMIT).forEach(writer::addCommit);
+                old.ids(ObjectStore.TREE).forEach(writer::addTree);
+                for (ObjectId id : old.ids(ObjectStore.BLOB)) {
+                    writer.addBlob(id, "");
+                }
+            }
+        }
+        File pack = writer.write(PACKPATH);
+        for (PackFile old : oldPacks) {
+            old.close();
+            if (!old.packFile().equals(pack)) {
+                old.packFile().delete();
+                old.indexFile().delete();
+            }
+        }
+        _packs.rescan();
+        for (ObjectId id : writer.ids()) {
+            _blobs.delete(id);
+            _trees.objects().delete(id);
+            _commits.objects().delete(id);
+        }
+        if (prune) {
+            long before = System.currentTimeMillis() - PRUNE_AGE;
+            for (File dir : new File[] { COMMITPATH, TREEPATH, BLOBPATH,
+                                         MANIFESTPATH }) {
+                new LooseObjectStore(dir).prune(chunked, before);
+            }
+        }
+        writeCommitGraph();
+        _messages.compact();
+    }
+
+    /** Writes the commit graph of all commits on branches, for use by
+     *  walks over history such as finding the split point of a merge,
+     *  and bitmaps of the commits reachable from them. */
+    public void commitGraph() {
+        if (!initialized()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        } else if (!onDisk()) {
+            return;
+        }
+        writeCommitGraph();
+    }
+
+    /** Rewrites the commit graph, and the bitmaps over it, once GRAPH_LAG
+     *  commits reachable from commit ID, just made, are missing from it,
+     *  so that walks over history never have to read many commits.  If
+     *  another command is writing them meanwhile, they are left to it. */
+    private void maintainCommitGraph(ObjectId id) {
+        if (_packs == null || _commits.missingFromGraph(id, GRAPH_LAG)
+                              < GRAPH_LAG) {
+            return;
+        }
+        try {
+            writeCommitGraph();
+        } catch (GitletException excp) {
+            return;
+        }
+    }
+
+    /** Writes the commit graph of the commits on branches, and
+     *  reachability bitmaps over it, storing those of the branch heads. */
+    private void writeCommitGraph() {
+        ArrayList<ObjectId> tips = branchCommits();
+        CommitGraph.write(COMMITGRAPHPATH, _commits, _trees, tips);
+        CommitGraph graph = CommitGraph.read(COMMITGRAPHPATH);
+        ArrayList<Integer> positions = new ArrayList<>();
+        for (ObjectId id : tips) {
+            positions.add(graph.find(id));
+        }
+        CommitBitmaps.write(BITMAPPATH, graph, positions);
+    }
+
+    /** Adds tree ID, whose directory has path PREFIX, and the trees and
+     *  blobs under it to WRITER, unless it is in SEENTREES, to which it
+     *  is then added.  Subtrees shared by many commits are thus added
+     *  once.  The IDs of chunked blobs are added to CHUNKED. */
+    private void packTree(PackWriter writer, ObjectId id, String prefix,
+                          HashSet<ObjectId> seenTrees,
+                          HashSet<ObjectId> chunked) {
+        if (!seenTrees.add(id)) {
+            return;
+        }
+        writer.addTree(id);
+        for (Map.Entry<String, ObjectId> e : _trees.read(id).entrySet()) {
+            String name = prefix + e.getKey();
+            if (TreeStore.isDir(name)) {
+                packTree(writer, e.getValue(), name, seenTrees, chunked);
+            } else {
+                packBlob(writer, e.getValue(), name, chunked);
+            }
+        }
+    }
+
+    /** Adds blob ID, found at PATH, to WRITER.  If it is chunked, adds its
+     *  chunks instead, since its manifest stays loose, and adds ID to
+     *  CHUNKED. */
+    private void packBlob(PackWriter writer, ObjectId id, String path,
+                          HashSet<ObjectId> chunked) {
+        if (!_blobs.isChunked(id)) {
+            writer.addBlob(id, path);
+        } else if (chunked.add(id)) {
+            for (ObjectId chunk : _blobs.chunks(id)) {
+                writer.addBlob(chunk, path);
+            }
+        }
+    }
+
+    public void packRefs() {
+        if (!initialized()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        _refs.pack();
+    }
+
     public ArrayList<File> fileMaker(Commit given) {
         ArrayList<File> rFile = new ArrayList<>();
-        Set<String> gfileNames = given.getBlobs().keySet();
-        String[] fileNames = gfileNames.toArray(new String[0]);
+        TreeMap<String, ObjectId> blobs = blobsOf(given);
+        String[] fileNames = blobs.keySet().toArray(new String[0]);
         for (String s : fileNames) {
-            String shaID = given.getBlobs().get(s);
-            rFile.add(Utils.join(BLOBPATH, shaID));
+            ObjectId shaID = blobs.get(s);
+            rFile.add(new LooseObjectStore(BLOBPATH).file(shaID));
         }
         return rFile;
     }
+
+    /** Returns the files of commit C, mapping each path to its blob ID. */
+    private TreeMap<String, ObjectId> blobsOf(Commit c) {
+        return _trees.flatten(c.getTree());
+    }
+
+    /** Makes the working files match commit TO, assuming they match
+     *  commit FROM apart from the files in CHANGED.  Only files under
+     *  subtrees that differ between FROM and TO, and those in CHANGED,
+     *  are written or deleted. */
+    private void checkoutTree(Commit from, Commit to,
+                              Collection<String> changed) {
+        TreeSet<String> paths =
+            new TreeSet<>(_trees.diff(from.getTree(), to.getTree()).keySet());
+        paths.addAll(changed);
+        for (String path : paths) {
+            ObjectId blob = _trees.lookup(to.getTree(), path);
+            if (blob == null) {
+                deleteWorkingFile(_workDir, path);
+            } else {
+                checkoutFile(blob, path,
+                             _trees.executable(to.getTree(), path));
+            }
+        }
+    }
+
+    /** Replaces working file PATH with the contents of blob ID, creating
+     *  its directory if need be, and makes it executable if EXEC. */
+    private void checkoutFile(ObjectId id, String path, boolean exec) {
+        File f = Utils.join(_workDir, path);
+        f.getParentFile().mkdirs();
+        f.delete();
+        _blobs.copyTo(id, f);
+        if (exec) {
+            f.setExecutable(true, false);
+        }
+        _written.put(path, id);
+    }
+
+    /** Deletes file PATH of the working directory ROOT, if it is there,
+     *  and then any of its directories left empty. */
+    static void deleteWorkingFile(File root, String path) {
+        File f = Utils.join(root, path);
+        if (f.isDirectory() || !f.delete()) {
+            return;
+        }
+        for (File dir = f.getParentFile(); !dir.equals(root);
+             dir = dir.getParentFile()) {
+            if (!dir.delete()) {
+                break;
+            }
+        }
+    }
 }
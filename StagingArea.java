@@ -1,145 +1,853 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
+/** The index: one entry for each path the next commit will track, giving
+ *  the blob ID of its contents and the size, modification time, inode
+ *  number and mode the working file had when it was last found to hold
+ *  those contents.  A path is staged for
+ *  addition when its entry differs from the current commit, and for
+ *  removal when the current commit tracks it but the index does not, so
+ *  the index alone describes the next commit.
+ *
+ *  The index is kept in an IndexStore, normally a single binary file,
+ *  read once per command, changed in memory and written back (only if
+ *  changed) by renaming a new file into place, and only if no other
+ *  command has written it in between.  The file holds the magic "GIDX",
+ *  a version and the entry count, then the entries sorted by path, each
+ *  as its mode, size, modification time in nanoseconds, inode number,
+ *  20-byte blob ID, and UTF-8 path preceded by its length.  A SHA-1
+ *  checksum of all that ends the file.
+ *
+ *  The recorded file data serve as a cache: a working file whose size,
+ *  modification time, inode and mode still match its entry is taken to
+ *  be unchanged without being read.  A file modified in the same clock
+ *  tick as the index was last written could keep its old modification
+ *  time, so an entry whose time is not before that of the index file is
+ *  "racily clean" and its file is hashed anyway.
+ *
+ *  When a file system monitor is running, the index also keeps the token
+ *  it last got from the monitor, marks the entries found unchanged since
+ *  then, and caches the untracked paths found then.  Later, only entries
+ *  not so marked, the cached paths and the paths the monitor reports
+ *  changed since the token need be examined.  Version 3 of the file adds
+ *  a flag byte to each entry, and after the entries the token and the
+ *  cached untracked paths, each preceded by its length, and their count
+ *  (-1 if there is no cache).
+ *
+ *  So that the staged changes can be found without reading every tree
+ *  of the current commit, the index also records the ID of the tree it
+ *  last matched, when it was cleared to a commit or committed, and the
+ *  paths added or removed since.  While the current commit still has that
+ *  tree, only those paths can be staged, and each is looked up on its
+ *  own.  Version 4 of the file adds, after the cached untracked paths, a
+ *  flag byte telling whether that tree is known, its 20-byte ID if so,
+ *  and the changed paths, each preceded by its length, and their count.
+ *  @author Nithish Rajan
+ */
+public class StagingArea {
 
-public class StagingArea implements Serializable {
+    /** Mode of a regular file. */
+    static final int REGULAR = 0100644;
+    /** Mode of an executable file. */
+    static final int EXECUTABLE = 0100755;
+    /** Size recorded for an entry whose working file has not been
+     *  examined, as when the entry comes from a commit. */
+    static final long UNKNOWN_SIZE = -1;
+    /** Length in bytes of the longest path the index can hold, whose
+     *  length is stored in two bytes. */
+    static final int MAX_PATH = 0xffff;
+    /** Inode number recorded when the file system does not identify
+     *  files. */
+    static final long NO_INODE = 0;
 
-    /** List of Added Files. */
-    private ArrayList<String> _addedFiles;
-
-    /** List of Files in Working Directory. */
-    static final File WORKINGDIR = new File(System.getProperty("user.dir"));
+    /** An index whose contents are kept in FILE, initially empty, for
+     *  the working directory. */
+    StagingArea(File file) {
+        this(new FileIndexStore(file), Repo.WORKINGDIR);
+    }
 
-    /** File path for .gitlet folder. */
-    private static File _gitletPath = Utils.join(WORKINGDIR, ".gitlet");
+    /** An index whose contents are kept in STORE, initially empty, for
+     *  working files under directory ROOT. */
+    StagingArea(IndexStore store, File root) {
+        _store = store;
+        _root = root;
+    }
 
-    /** File path for Stage. */
-    private static File _stagePath = Utils.join(_gitletPath, "stage");
+    /** Returns the index kept in FILE, for the working directory, or null
+     *  if there is none. */
+    static StagingArea read(File file) {
+        return read(new FileIndexStore(file), Repo.WORKINGDIR);
+    }
 
-    /** File path for list of added files. */
-    private File addedStage = Utils.join(_stagePath, "added");
+    /** Returns the index kept in STORE, for working files under directory
+     *  ROOT, or null if there is none. */
+    static StagingArea read(IndexStore store, File root) {
+        byte[] data = store.read();
+        if (data == null) {
+            return null;
+        }
+        StagingArea result = new StagingArea(store, root);
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            int end = data.length - md.getDigestLength();
+            if (end < HEADER_SIZE) {
+                throw new IllegalArgumentException("corrupt index");
+            }
+            md.update(data, 0, end);
+            result._checksum = Arrays.copyOfRange(data, end, data.length);
+            if (!Arrays.equals(md.digest(), result._checksum)) {
+                throw new IllegalArgumentException("corrupt index");
+            }
+            ByteBuffer in = ByteBuffer.wrap(data, 0, end);
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            int version = in.getInt();
+            if (!Arrays.equals(magic, MAGIC)
+                || version < 1 || version > VERSION) {
+                throw new IllegalArgumentException("corrupt index");
+            }
+            int count = in.getInt();
+            for (int i = 0; i < count; i += 1) {
+                int mode = in.getInt();
+                long size = in.getLong();
+                long mtime = in.getLong();
+                long ino = NO_INODE;
+                if (version == 1) {
+                    mtime = TimeUnit.MILLISECONDS.toNanos(mtime);
+                } else {
+                    ino = in.getLong();
+                }
+                int flags = version >= 3 ? in.get() : 0;
+                ObjectId id = ObjectId.fromRaw(data, in.position());
+                in.position(in.position() + ObjectId.LENGTH);
+                String path = readString(in, data);
+                result._entries.put(path,
+                                    new Entry(id, size, mtime, ino, mode));
+                if ((flags & CLEAN) != 0) {
+                    result._clean.add(path);
+                }
+            }
+            if (version >= 3) {
+                String token = readString(in, data);
+                result._token = token.isEmpty() ? null : token;
+                int untracked = in.getInt();
+                if (untracked >= 0) {
+                    result._untracked = new TreeSet<>();
+                    for (int i = 0; i < untracked; i += 1) {
+                        result._untracked.add(readString(in, data));
+                    }
+                }
+            }
+            if (version >= 4) {
+                if (in.get() != 0) {
+                    result._base = ObjectId.fromRaw(data, in.position());
+                    in.position(in.position() + ObjectId.LENGTH);
+                }
+                int touched = in.getInt();
+                for (int i = 0; i < touched; i += 1) {
+                    result._touched.add(readString(in, data));
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt index");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        result._timestamp = store.timestamp();
+        return result;
+    }
 
-    /** File path for list of removed files. */
-    private File removePath = Utils.join(_stagePath, "remove");
+    /** Returns the string at the position of IN, reading from DATA, its
+     *  backing array, and advances IN past it. */
+    private static String readString(ByteBuffer in, byte[] data) {
+        int length = in.getShort() & 0xffff;
+        String result = new String(data, in.position(), length,
+                                   StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return result;
+    }
 
+    /** Returns true iff PATH is short enough to be kept in the index. */
+    static boolean fits(String path) {
+        return path.getBytes(StandardCharsets.UTF_8).length <= MAX_PATH;
+    }
 
-    public ArrayList<String> getAddedFiles() {
-        if (Utils.plainFilenamesIn(addedStage) == null) {
-            return new ArrayList<>();
+    /** Writes S, which must be at most MAX_PATH bytes long in UTF-8, to
+     *  OUT preceded by its length. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_PATH) {
+            throw new IllegalArgumentException("path too long for the "
+                                               + "index: " + s);
         }
-        return new ArrayList<>(Utils.plainFilenamesIn(addedStage));
+        out.writeShort(bytes.length);
+        out.write(bytes);
     }
-    public void clear() {
-        _addedFiles = new ArrayList<>();
-        List<String> filesinAdd = Utils.plainFilenamesIn(addedStage);
-        List<String> filesinRemove = Utils.plainFilenamesIn(removePath);
-        if (filesinAdd != null) {
-            for (String s : filesinAdd) {
-                File f = Utils.join(addedStage, s);
-                f.delete();
-            }
+
+    /** Writes this index back to its store if it has changed since it
+     *  was read.  The store replaces the index only if the checksum ending
+     *  it is still the one read, so if another command has replaced the
+     *  index since, this one fails rather than undo that command's
+     *  changes. */
+    void write() {
+        if (!_dirty) {
+            return;
         }
-        if (filesinRemove != null) {
-            for (String s : filesinRemove) {
-                File f = Utils.join(removePath, s);
-                f.delete();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            DataOutputStream body =
+                new DataOutputStream(new DigestOutputStream(out, md));
+            body.write(MAGIC);
+            body.writeInt(VERSION);
+            body.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                Entry entry = e.getValue();
+                body.writeInt(entry.mode());
+                body.writeLong(entry.size());
+                body.writeLong(entry.mtime());
+                body.writeLong(entry.ino());
+                body.write(_clean.contains(e.getKey()) ? CLEAN : 0);
+                body.write(entry.id().toRaw());
+                writeString(body, e.getKey());
+            }
+            writeString(body, _token == null ? "" : _token);
+            if (_untracked == null) {
+                body.writeInt(-1);
+            } else {
+                body.writeInt(_untracked.size());
+                for (String path : _untracked) {
+                    writeString(body, path);
+                }
+            }
+            if (_base == null) {
+                body.write(0);
+            } else {
+                body.write(1);
+                body.write(_base.toRaw());
+            }
+            body.writeInt(_touched.size());
+            for (String path : _touched) {
+                writeString(body, path);
             }
+            body.flush();
+            byte[] checksum = md.digest();
+            out.write(checksum);
+            out.flush();
+            _store.replace(_checksum, bytes.toByteArray());
+            _checksum = checksum;
+            _dirty = false;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
+    }
 
+    /** Writes this index back as write does, unless another command has
+     *  changed it since it was read or is changing it, in which case
+     *  nothing is written.  Meant for commands that change only what the
+     *  index caches about the working files, which a later command can
+     *  find again. */
+    void writeCache() {
+        try {
+            write();
+        } catch (GitletException excp) {
+            return;
+        }
     }
 
-    public void add(String realFile, Commit recentCommit) {
-        if (!addedStage.exists()) {
-            addedStage.mkdir();
-            _addedFiles = new ArrayList<>();
-        } else {
-            _addedFiles = getAddedFiles();
-        }
-        File realAddFile = new File(realFile);
-        byte[] contents = Utils.readContents(realAddFile);
-        String afi = Utils.sha1(contents);
-        TreeMap<String, String> blobs = recentCommit.getBlobs();
-        if (_addedFiles.contains(realFile)) {
-            File realFilePath = Utils.join(addedStage, realFile);
-            realFilePath.delete();
-            Utils.writeContents(realFilePath, contents);
-            File removeFile = Utils.join(removePath, realFile);
-            removeFile.delete();
+    /** Uses MONITOR to learn which working files have changed, once the
+     *  working tree is first examined. */
+    void setMonitor(FsMonitor monitor) {
+        _monitor = monitor;
+    }
+
+    /** Asks the monitor, if there is one and this has not been done yet,
+     *  for the paths changed since the saved token, and forgets that the
+     *  entries at or under those paths were clean.  If the monitor is not
+     *  running, or cannot say what changed, everything is examined.  If
+     *  nothing changed, the saved token is kept, so the index need not be
+     *  written again. */
+    private void sync() {
+        if (_synced || _monitor == null) {
+            return;
+        }
+        _synced = true;
+        FsMonitor.Changes changes = _monitor.changedSince(_token);
+        if (changes == null) {
+            if (_token != null || !_clean.isEmpty() || _untracked != null) {
+                forgetMonitor();
+            }
             return;
         }
-        String blobAfi = blobs.get(realFile);
-        if (blobAfi != null && blobAfi.equals(afi)) {
-            _addedFiles.remove(realFile);
-            File removeFile = Utils.join(removePath, realFile);
-            removeFile.delete();
+        _changed = changes.paths();
+        if (_changed != null && _changed.isEmpty()) {
             return;
         }
-        _addedFiles.add(realFile);
-        File f = Utils.join(addedStage, realFile);
-        Utils.writeContents(f, contents);
-        File removeFile = Utils.join(removePath, realFile);
-        removeFile.delete();
+        _token = changes.token();
+        _dirty = true;
+        if (_changed == null) {
+            _clean.clear();
+            _untracked = null;
+            return;
+        }
+        for (String path : _changed) {
+            _clean.remove(path);
+            _clean.subSet(path + "/", path + "/" + Character.MAX_VALUE)
+                .clear();
+        }
+    }
+
+    /** Discards the token and everything learned with it. */
+    private void forgetMonitor() {
+        _token = null;
+        _clean.clear();
+        _untracked = null;
+        _dirty = true;
+    }
+
+    /** Returns the entry for PATH, or null if PATH is not in the index. */
+    Entry get(String path) {
+        return _entries.get(path);
+    }
+
+    /** Returns the entries of the index, keyed by path in sorted order.
+     *  The result must not be modified. */
+    TreeMap<String, Entry> entries() {
+        return _entries;
     }
 
-    public void remove(String rFile, Commit rCom) {
-        _addedFiles = getAddedFiles();
-        _addedFiles.remove(rFile);
-        if (!removePath.exists()) {
-            removePath.mkdir();
+    /** Returns the paths staged for addition in CHANGES, a result of
+     *  changes, in lexicographic order. */
+    static ArrayList<String> getAddedFiles(Map<String, ObjectId> changes) {
+        ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> e : changes.entrySet()) {
+            if (e.getValue() != null) {
+                result.add(e.getKey());
+            }
         }
-        File f = new File(rFile);
-        if (rCom.getBlobs().get(rFile) == null || !f.exists()) {
-            File re = Utils.join(addedStage, rFile);
-            re.delete();
-            if (!f.exists()) {
-                File s = Utils.join(removePath, rFile);
-                Utils.writeContents(s, rFile);
+        return result;
+    }
+
+    /** Returns the paths staged for removal in CHANGES, a result of
+     *  changes, in lexicographic order. */
+    static ArrayList<String> getRemovedFiles(Map<String, ObjectId> changes) {
+        ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                result.add(e.getKey());
             }
-            return;
         }
-        byte[] contents = Utils.readContents(f);
-        if (rCom.getBlobs().get(rFile).equals(Utils.sha1(contents))) {
-            Utils.restrictedDelete(f);
-            File removedFile = Utils.join(removePath, rFile);
-            Utils.writeContents(removedFile, contents);
+        return result;
+    }
+
+    /** Returns the tracked files whose working copies differ from their
+     *  entries, in lexicographic order, each followed by " (modified)" or
+     *  " (deleted)". */
+    public ArrayList<String> getModifiedFiles() {
+        ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> e : modifications().entrySet()) {
+            result.add(e.getKey() + " (" + e.getValue() + ")");
+        }
+        return result;
+    }
+
+    /** Returns the paths of the tracked files whose working copies have
+     *  been modified or deleted since they were staged, in lexicographic
+     *  order. */
+    public Set<String> getModifiedPaths() {
+        return modifications().keySet();
+    }
+
+    /** Returns a map from the path of each tracked file whose working
+     *  copy differs from its entry to "modified" or "deleted".  Entries
+     *  the file system monitor shows to be still clean are skipped, and
+     *  of the rest only files whose entries do not match their current
+     *  file data, or are racily clean, are read.  Those found unchanged
+     *  after all have their entries refreshed, so they need not be read
+     *  again once the index is written. */
+    private TreeMap<String, String> modifications() {
+        sync();
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            String path = e.getKey();
+            if (_clean.contains(path)) {
+                continue;
+            }
+            String change = check(e);
+            if (change != null) {
+                result.put(path, change);
+            } else if (_token != null) {
+                _clean.add(path);
+                _dirty = true;
+            }
         }
-        File re = Utils.join(addedStage, rFile);
-        re.delete();
+        return result;
     }
 
-    public Commit commit(String message, Commit recentCommit) {
-        _addedFiles = getAddedFiles();
-        List<String> removedFiles = Utils.plainFilenamesIn(removePath);
-        if (_addedFiles.size() == 0 && removedFiles == null) {
+    /** Returns "modified" or "deleted" if the working file of index entry
+     *  E differs from it in contents or mode, and otherwise null,
+     *  refreshing E if its file had to be read. */
+    private String check(Map.Entry<String, Entry> e) {
+        Entry entry = e.getValue();
+        File file = new File(_root, e.getKey());
+        Entry current = stat(entry.id(), file);
+        if (current == null) {
+            return "deleted";
+        } else if (entry.sameFileData(current)
+                   && entry.mtime() < _timestamp) {
+            return null;
+        } else if (entry.mode() != current.mode()) {
+            return "modified";
+        } else if (entry.id().equals(Utils.sha1Id(file))) {
+            e.setValue(current);
+            _dirty = true;
             return null;
+        } else {
+            return "modified";
         }
-        TreeMap<String, String> blobs = recentCommit.getBlobs();
-        TreeMap<String, String> comBlobs = new TreeMap<>();
-        for (String key : blobs.keySet()) {
-            if (!_addedFiles.contains(key)) {
-                comBlobs.put(key, blobs.get(key));
+    }
+
+    /** Returns the paths of the plain files under directory DIR, the
+     *  working directory, that are not in the index, in lexicographic
+     *  order, never looking in DIR's .gitlet directory.  Only the names
+     *  not in the index are examined; the tracked files are left to
+     *  getModifiedFiles.  With a file system monitor, only the untracked
+     *  paths cached at its last token and the paths changed since are
+     *  examined, rather than the whole tree. */
+    public ArrayList<String> getUntrackedFiles(File dir) {
+        sync();
+        TreeSet<String> result = new TreeSet<>();
+        if (_untracked == null || _changed == null) {
+            addUntracked(dir, "", result);
+        } else {
+            TreeSet<String> candidates = new TreeSet<>(_untracked);
+            candidates.addAll(_changed);
+            for (String path : candidates) {
+                File file = new File(dir, path);
+                if (_entries.containsKey(path)) {
+                    continue;
+                } else if (file.isFile()) {
+                    result.add(path);
+                } else if (_changed.contains(path) && file.isDirectory()) {
+                    addUntracked(file, path + "/", result);
+                }
             }
         }
-        for (String key : _addedFiles) {
-            File f = Utils.join(addedStage, key);
-            String sha = Utils.sha1(Utils.readContents(f));
-            comBlobs.put(key, sha);
+        if (_token != null && !result.equals(_untracked)) {
+            _untracked = new TreeSet<>(result);
+            _dirty = true;
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Adds the paths of the untracked files under directory DIR, whose
+     *  path is PREFIX, to RESULT. */
+    private void addUntracked(File dir, String prefix,
+                              TreeSet<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
         }
-        if (removedFiles != null) {
-            for (String s : removedFiles) {
-                if (comBlobs.containsKey(s)) {
-                    comBlobs.remove(s);
+        for (String name : names) {
+            String path = prefix + name;
+            if (_entries.containsKey(path)
+                || (prefix.isEmpty() && name.equals(GITLET_DIR))) {
+                continue;
+            }
+            File file = new File(dir, name);
+            if (file.isDirectory()) {
+                addUntracked(file, path + "/", result);
+            } else if (file.isFile()) {
+                result.add(path);
+            }
+        }
+    }
+
+    /** Returns true iff anything is staged for addition or removal
+     *  relative to tree HEAD of TREES. */
+    public boolean hasChanges(TreeStore trees, ObjectId head) {
+        return !changes(trees, head).isEmpty();
+    }
+
+    /** Returns the changes staged relative to tree HEAD of TREES: each
+     *  path whose staged blob ID or mode differs from HEAD is mapped to
+     *  that ID, or to null if it is staged for removal.  If HEAD is the
+     *  tree the index last matched, only the paths changed since are
+     *  looked up in it; otherwise all of HEAD is read and compared with
+     *  the index. */
+    TreeMap<String, ObjectId> changes(TreeStore trees, ObjectId head) {
+        if (_base != null && _base.equals(head)) {
+            TreeMap<String, ObjectId> result = new TreeMap<>();
+            for (String path : _touched) {
+                Entry entry = _entries.get(path);
+                ObjectId old = trees.lookup(head, path);
+                if (entry == null ? old != null : !entry.id().equals(old)
+                    || entry.executable() != trees.executable(head, path)) {
+                    result.put(path, entry == null ? null : entry.id());
+                }
+            }
+            return result;
+        }
+        HashSet<String> executables = new HashSet<>();
+        return changes(trees.flatten(head, executables), executables);
+    }
+
+    /** Returns the changes staged relative to HEAD, a sorted map from
+     *  path to blob ID, whose executable files are EXECUTABLES, as for
+     *  changes(TreeStore, ObjectId).  Since both are sorted by path, they
+     *  are compared in one pass side by side, using the IDs recorded when
+     *  the files were added. */
+    private TreeMap<String, ObjectId> changes(
+        SortedMap<String, ObjectId> head, Set<String> executables) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        Iterator<Map.Entry<String, Entry>> staged =
+            _entries.entrySet().iterator();
+        Iterator<Map.Entry<String, ObjectId>> old =
+            head.entrySet().iterator();
+        Map.Entry<String, Entry> s = staged.hasNext() ? staged.next() : null;
+        Map.Entry<String, ObjectId> h = old.hasNext() ? old.next() : null;
+        while (s != null || h != null) {
+            int cmp = s == null ? 1
+                : h == null ? -1 : s.getKey().compareTo(h.getKey());
+            if (cmp > 0) {
+                result.put(h.getKey(), null);
+            } else if (cmp < 0 || !s.getValue().id().equals(h.getValue())
+                       || s.getValue().executable()
+                          != executables.contains(s.getKey())) {
+                result.put(s.getKey(), s.getValue().id());
+            }
+            if (cmp <= 0) {
+                s = staged.hasNext() ? staged.next() : null;
+            }
+            if (cmp >= 0) {
+                h = old.hasNext() ? old.next() : null;
+            }
+        }
+        return result;
+    }
+
+    /** Makes the index match tree ID of TREES, the tree of a commit,
+     *  unstaging everything.  An entry whose blob and mode are unchanged
+     *  keeps the file data recorded for it, and whether it was found
+     *  clean; the rest start with their working files unexamined. */
+    public void clear(TreeStore trees, ObjectId id) {
+        HashSet<String> executables = new HashSet<>();
+        TreeMap<String, ObjectId> blobs = trees.flatten(id, executables);
+        if (_untracked != null) {
+            for (String path : _entries.keySet()) {
+                if (!blobs.containsKey(path)) {
+                    _untracked.add(path);
                 }
             }
         }
+        TreeMap<String, Entry> old = new TreeMap<>(_entries);
+        HashSet<String> kept = new HashSet<>();
+        _entries.clear();
+        for (Map.Entry<String, ObjectId> e : blobs.entrySet()) {
+            String path = e.getKey();
+            int mode = executables.contains(path) ? EXECUTABLE : REGULAR;
+            Entry entry = old.get(path);
+            if (entry != null && entry.id().equals(e.getValue())
+                && entry.mode() == mode) {
+                kept.add(path);
+            } else {
+                entry = new Entry(e.getValue(), mode);
+            }
+            _entries.put(path, entry);
+        }
+        _clean.retainAll(kept);
+        _base = id;
+        _touched.clear();
+        _dirty = true;
+    }
+
+    /** Records the current file data of working file PATH, just written
+     *  with the contents of blob ID, in its entry, provided the entry is
+     *  for ID and the file has the entry's mode, so that the file need not
+     *  be read again to find it unchanged.  A file written in the same
+     *  clock tick as the index is still racily clean. */
+    void written(String path, ObjectId id) {
+        Entry entry = _entries.get(path);
+        if (entry == null || !entry.id().equals(id)) {
+            return;
+        }
+        Entry current = stat(id, new File(_root, path));
+        if (current != null && current.mode() == entry.mode()) {
+            _entries.put(path, current);
+            _clean.remove(path);
+            _dirty = true;
+        }
+    }
+
+    /** Stages REALFILE, whose contents are blob AFI, for the next
+     *  commit.  If AFI is what the current commit already tracks, this
+     *  simply unstages any change to REALFILE. */
+    public void add(String realFile, ObjectId afi) {
+        _entries.put(realFile, stat(afi, new File(_root, realFile)));
+        _clean.remove(realFile);
+        _touched.add(realFile);
+        _dirty = true;
+    }
+
+    /** Unstages RFILE, and if tree HEAD of TREES, that of the current
+     *  commit, tracks it, stages it for removal and deletes it from the
+     *  working directory.  A working file whose contents differ from
+     *  those in HEAD is left tracked and in place. */
+    public void remove(String rFile, TreeStore trees, ObjectId head) {
+        ObjectId tracked = trees.lookup(head, rFile);
+        File f = new File(_root, rFile);
+        _dirty = true;
+        _clean.remove(rFile);
+        _touched.add(rFile);
+        if (tracked == null || !f.exists()) {
+            untrack(rFile);
+            return;
+        }
+        if (tracked.equals(Utils.sha1Id(f))) {
+            Repo.deleteWorkingFile(_root, rFile);
+            _entries.remove(rFile);
+        } else {
+            _entries.put(rFile,
+                         new Entry(tracked, trees.executable(head, rFile)
+                                   ? EXECUTABLE : REGULAR));
+        }
+    }
+
+    /** Removes PATH from the index, leaving its working file, if any,
+     *  untracked. */
+    private void untrack(String path) {
+        _entries.remove(path);
+        _touched.add(path);
+        if (_untracked != null) {
+            _untracked.add(path);
+        }
+    }
+
+    /** Returns a commit with message MESSAGE whose parent is
+     *  RECENTCOMMIT and which tracks the files in the index, writing its
+     *  trees to TREES.  Only the trees of directories holding staged
+     *  changes are written; the rest are shared with RECENTCOMMIT.  The
+     *  index then matches the new commit's tree.  Returns null if nothing
+     *  is staged. */
+    public Commit commit(String message, Commit recentCommit,
+                         TreeStore trees) {
+        TreeMap<String, ObjectId> changes =
+            changes(trees, recentCommit.getTree());
+        if (changes.isEmpty()) {
+            return null;
+        }
         String s = message;
         ZonedDateTime d = ZonedDateTime.now();
-        return new Commit(s, d, recentCommit, comBlobs);
+        HashSet<String> executables = new HashSet<>();
+        for (String path : changes.keySet()) {
+            Entry entry = _entries.get(path);
+            if (entry != null && entry.executable()) {
+                executables.add(path);
+            }
+        }
+        ObjectId tree =
+            trees.edit(recentCommit.getTree(), changes, executables);
+        _base = tree;
+        _touched.clear();
+        _dirty = true;
+        return new Commit(s, d, recentCommit.getId(), tree);
+    }
+
+    /** Returns an entry for blob ID holding the current file data of
+     *  FILE, or null if FILE is not a plain file. */
+    static Entry stat(ObjectId id, File file) {
+        Path path = file.toPath();
+        try {
+            Map<String, Object> attrs =
+                Files.readAttributes(path, UNIX_ATTRIBUTES);
+            int mode = (Integer) attrs.get("mode");
+            if ((mode & S_IFMT) != S_IFREG) {
+                return null;
+            }
+            return new Entry(id, (Long) attrs.get("size"),
+                             toNanos((FileTime) attrs.get("lastModifiedTime")),
+                             (Long) attrs.get("ino"),
+                             (mode & EXEC_BITS) != 0 ? EXECUTABLE : REGULAR);
+        } catch (UnsupportedOperationException excp) {
+            if (!file.isFile()) {
+                return null;
+            }
+            return new Entry(id, file.length(), mtimeOf(file), NO_INODE,
+                             file.canExecute() ? EXECUTABLE : REGULAR);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the modification time of FILE in nanoseconds since the
+     *  epoch. */
+    static long mtimeOf(File file) {
+        try {
+            return toNanos(Files.getLastModifiedTime(file.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns TIME in nanoseconds since the epoch. */
+    private static long toNanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** An entry of the index. */
+    static final class Entry {
+
+        /** An entry for blob ID with mode MODE, whose working file has
+         *  not been examined. */
+        Entry(ObjectId id, int mode) {
+            this(id, UNKNOWN_SIZE, 0, NO_INODE, mode);
+        }
+
+        /** An entry for blob ID, whose working file had size SIZE,
+         *  modification time MTIME, inode number INO and mode MODE. */
+        Entry(ObjectId id, long size, long mtime, long ino, int mode) {
+            _id = id;
+            _size = size;
+            _mtime = mtime;
+            _ino = ino;
+            _mode = mode;
+        }
+
+        /** Returns true iff OTHER records the same size, modification
+         *  time, inode and mode as this entry. */
+        boolean sameFileData(Entry other) {
+            return _size == other._size && _mtime == other._mtime
+                && _ino == other._ino && _mode == other._mode;
+        }
+
+        /** Returns the blob ID of the staged contents. */
+        ObjectId id() {
+            return _id;
+        }
+
+        /** Returns the size of the working file when staged, or
+         *  UNKNOWN_SIZE. */
+        long size() {
+            return _size;
+        }
+
+        /** Returns the modification time of the working file when
+         *  staged, in nanoseconds since the epoch. */
+        long mtime() {
+            return _mtime;
+        }
+
+        /** Returns the inode number of the working file, or
+         *  NO_INODE. */
+        long ino() {
+            return _ino;
+        }
+
+        /** Returns the mode of the working file. */
+        int mode() {
+            return _mode;
+        }
+
+        /** Returns true iff the file is executable. */
+        boolean executable() {
+            return _mode == EXECUTABLE;
+        }
+
+        /** Blob ID. */
+        private final ObjectId _id;
+        /** Size in bytes. */
+        private final long _size;
+        /** Modification time. */
+        private final long _mtime;
+        /** Inode number. */
+        private final long _ino;
+        /** File mode. */
+        private final int _mode;
     }
+
+    /** Attributes of the "unix" view read for each working file. */
+    private static final String UNIX_ATTRIBUTES =
+        "unix:mode,ino,size,lastModifiedTime";
+    /** Bits of a unix mode giving the type of file. */
+    private static final int S_IFMT = 0170000;
+    /** Type bits of a unix mode for a regular file. */
+    private static final int S_IFREG = 0100000;
+    /** Bits of a unix mode allowing execution. */
+    private static final int EXEC_BITS = 0111;
+    /** Flag marking an entry the monitor shows to be clean. */
+    private static final int CLEAN = 1;
+    /** Magic number starting an index file. */
+    private static final byte[] MAGIC =
+        "GIDX".getBytes(StandardCharsets.US_ASCII);
+    /** Name of the repository directory, never itself untracked. */
+    private static final String GITLET_DIR = ".gitlet";
+    /** Size of the magic number, version and entry count. */
+    private static final int HEADER_SIZE = 12;
+    /** Version of the index file format.  Version 1 lacked inode
+     *  numbers and kept times in milliseconds; version 2 lacked the file
+     *  system monitor's data; version 3 lacked the tree last matched. */
+    private static final int VERSION = 4;
+
+    /** Where this index is kept. */
+    private final IndexStore _store;
+    /** Directory holding the working files. */
+    private final File _root;
+    /** Checksum ending the index when it was last read or written, or
+     *  null if this index has not been read from it. */
+    private byte[] _checksum;
+    /** The entries, keyed by path. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+    /** True iff the entries have changed since they were read. */
+    private boolean _dirty;
+    /** Time the index was last replaced when it was read, in
+     *  nanoseconds, or 0 if it was not read.  Entries modified no earlier
+     *  than this are racily clean. */
+    private long _timestamp;
+    /** The file system monitor, or null. */
+    private FsMonitor _monitor;
+    /** True iff the monitor has been asked for changes. */
+    private boolean _synced;
+    /** The monitor's token as of which the entries in _clean and the
+     *  untracked paths in _untracked were found, or null. */
+    private String _token;
+    /** Paths of the entries found clean as of _token. */
+    private final TreeSet<String> _clean = new TreeSet<>();
+    /** Untracked paths as of _token, or null if not known. */
+    private TreeSet<String> _untracked;
+    /** Paths changed since the saved token, or null if not known. */
+    private TreeSet<String> _changed;
+    /** The tree the entries matched when the index was last cleared or
+     *  committed, or null if not known. */
+    private ObjectId _base;
+    /** Paths added or removed since the entries matched _base. */
+    private final TreeSet<String> _touched = new TreeSet<>();
 }
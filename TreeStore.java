@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Reads and writes tree objects.  A tree describes one directory: for
+ *  each file in it, the ID of the blob holding its contents, and for each
+ *  subdirectory, the ID of another tree.  A commit names only the tree of
+ *  the top directory, so commits whose subdirectories did not change
+ *  share those subdirectories' trees, and two trees with the same ID are
+ *  known to be identical without looking inside.
+ *
+ *  In memory, a tree is a sorted map from name to ID in which the names
+ *  of subdirectories end in '/' and those of executable files in EXEC,
+ *  a character no file name holds.  Stored, it is the sequence of its
+ *  entries in that order, each written as "MODE NAME\0" followed by the
+ *  20 raw bytes of the ID, where MODE is 40000 for a subdirectory, 100755
+ *  for an executable file and 100644 for any other file, and NAME lacks
+ *  the '/' or EXEC.  Files elsewhere are named by paths relative to the
+ *  top directory, with components separated by '/', and without EXEC.
+ *  @author Nithish Rajan
+ */
+class TreeStore {
+
+    /** Character ending the names of executable files in trees held in
+     *  memory. */
+    static final char EXEC = '\0';
+
+    /** A store for the trees kept as objects in OBJECTS. */
+    TreeStore(ObjectStore objects) {
+        _objects = objects;
+    }
+
+    /** Returns the objects holding the trees. */
+    ObjectStore objects() {
+        return _objects;
+    }
+
+    /** Returns the entries of tree ID, which must not be modified, or an
+     *  empty map if ID is null. */
+    TreeMap<String, ObjectId> read(ObjectId id) {
+        if (id == null) {
+            return EMPTY;
+        }
+        TreeMap<String, ObjectId> result = CACHE.get(id);
+        if (result == null) {
+            result = parse(_objects.read(id));
+            CACHE.put(id, result);
+        }
+        return result;
+    }
+
+    /** Returns the files under tree ID, mapping each path to its blob
+     *  ID, or an empty map if ID is null. */
+    TreeMap<String, ObjectId> flatten(ObjectId id) {
+        return flatten(id, new HashSet<>());
+    }
+
+    /** Returns the files under tree ID as flatten(ID) does, and adds the
+     *  paths of the executable ones to EXECUTABLES. */
+    TreeMap<String, ObjectId> flatten(ObjectId id, Set<String> executables) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        flatten(id, "", result, executables);
+        return result;
+    }
+
+    /** Adds the files under tree ID to RESULT, and the executable ones to
+     *  EXECUTABLES, their paths prefixed by PREFIX. */
+    private void flatten(ObjectId id, String prefix,
+                         TreeMap<String, ObjectId> result,
+                         Set<String> executables) {
+        for (Map.Entry<String, ObjectId> e : read(id).entrySet()) {
+            String name = prefix + e.getKey();
+            if (isDir(name)) {
+                flatten(e.getValue(), name, result, executables);
+            } else if (isExecutable(name)) {
+                name = pathOf(name);
+                result.put(name, e.getValue());
+                executables.add(name);
+            } else {
+                result.put(name, e.getValue());
+            }
+        }
+    }
+
+    /** Returns the blob ID of the file at PATH under tree ID, or null if
+     *  there is none. */
+    ObjectId lookup(ObjectId id, String path) {
+        if (path.isEmpty() || isDir(path)) {
+            return null;
+        }
+        ObjectId result = entry(id, path);
+        return result == null ? entry(id, path + EXEC) : result;
+    }
+
+    /** Returns true iff there is an executable file at PATH under tree
+     *  ID. */
+    boolean executable(ObjectId id, String path) {
+        return !path.isEmpty() && !isDir(path)
+            && entry(id, path + EXEC) != null;
+    }
+
+    /** Returns the tree ID of the directory DIR (with no trailing '/')
+     *  under tree ID, or null if there is none. */
+    ObjectId lookupDir(ObjectId id, String dir) {
+        return entry(id, dir + "/");
+    }
+
+    /** Returns the ID of the entry at PATH under tree ID, which is a
+     *  directory if PATH ends in '/', or null if there is none. */
+    private ObjectId entry(ObjectId id, String path) {
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash != -1 && id != null;
+             slash = path.indexOf('/', start)) {
+            id = read(id).get(path.substring(start, slash + 1));
+            start = slash + 1;
+        }
+        if (id == null || start == path.length()) {
+            return id;
+        }
+        return read(id).get(path.substring(start));
+    }
+
+    /** Writes trees for FILES, a map from path to blob ID, and returns
+     *  the ID of the top one.  Trees already present are not written
+     *  again. */
+    ObjectId write(NavigableMap<String, ObjectId> files) {
+        return edit(null, files, Set.of());
+    }
+
+    /** Returns the ID of the tree that is tree ID (or an empty tree if ID
+     *  is null) with the files in CHANGES, a map from path to blob ID,
+     *  replaced; a null blob ID removes the file.  The files replaced
+     *  whose paths are in EXECUTABLES are made executable, and the others
+     *  not.  Only the trees of the directories CHANGES touch are read and
+     *  written; subdirectories left empty are dropped. */
+    ObjectId edit(ObjectId id, NavigableMap<String, ObjectId> changes,
+                  Set<String> executables) {
+        ObjectId result = edit(id, changes, executables, "");
+        return result == null ? put(EMPTY) : result;
+    }
+
+    /** Returns the ID of tree ID edited by the entries of CHANGES whose
+     *  paths start with PREFIX, the path of the tree's directory, or null
+     *  if the result is empty. */
+    private ObjectId edit(ObjectId id,
+                          NavigableMap<String, ObjectId> changes,
+                          Set<String> executables, String prefix) {
+        TreeMap<String, ObjectId> entries = new TreeMap<>(read(id));
+        NavigableMap<String, ObjectId> mine = under(changes, prefix);
+        for (String path = mine.isEmpty() ? null : mine.firstKey();
+             path != null; path = mine.higherKey(path)) {
+            String rest = path.substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash == -1) {
+                ObjectId blob = mine.get(path);
+                entries.remove(rest);
+                entries.remove(rest + EXEC);
+                if (blob != null) {
+                    entries.remove(rest + "/");
+                    entries.put(executables.contains(path) ? rest + EXEC
+                                : rest, blob);
+                }
+            } else {
+                String dir = rest.substring(0, slash + 1);
+                ObjectId sub = edit(entries.get(dir), changes, executables,
+                                    prefix + dir);
+                if (sub == null) {
+                    entries.remove(dir);
+                } else {
+                    entries.remove(rest.substring(0, slash));
+                    entries.remove(rest.substring(0, slash) + EXEC);
+                    entries.put(dir, sub);
+                }
+                path = lastUnder(mine, prefix + dir);
+            }
+        }
+        return entries.isEmpty() ? null : put(entries);
+    }
+
+    /** Returns the files that differ between trees A and B (either of
+     *  which may be null), mapping each path to the pair of its blob IDs
+     *  in A and B, with null for a file missing from one side.  A file
+     *  made executable or not, but otherwise unchanged, maps to a pair of
+     *  equal IDs.  Subdirectories whose trees have the same ID on both
+     *  sides are skipped without being read. */
+    TreeMap<String, ObjectId[]> diff(ObjectId a, ObjectId b) {
+        TreeMap<String, ObjectId[]> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    /** Adds the differences between trees A and B, whose directory has
+     *  path PREFIX, to RESULT. */
+    private void diff(ObjectId a, ObjectId b, String prefix,
+                      TreeMap<String, ObjectId[]> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, ObjectId> left = read(a), right = read(b);
+        TreeSet<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            ObjectId x = left.get(name), y = right.get(name);
+            if (x != null && x.equals(y)) {
+                continue;
+            } else if (isDir(name)) {
+                diff(x, y, prefix + name, result);
+            } else {
+                result.merge(pathOf(prefix + name), new ObjectId[] { x, y },
+                             (p, q) -> new ObjectId[] {
+                                 p[0] == null ? q[0] : p[0],
+                                 p[1] == null ? q[1] : p[1] });
+            }
+        }
+    }
+
+    /** Adds the IDs of tree ID and all trees under it to RESULT, skipping
+     *  trees already there. */
+    void collect(ObjectId id, Set<ObjectId> result) {
+        if (id == null || !result.add(id)) {
+            return;
+        }
+        for (Map.Entry<String, ObjectId> e : read(id).entrySet()) {
+            if (isDir(e.getKey())) {
+                collect(e.getValue(), result);
+            }
+        }
+    }
+
+    /** Returns true iff NAME, an entry of a tree, names a directory. */
+    static boolean isDir(String name) {
+        return name.endsWith("/");
+    }
+
+    /** Returns true iff NAME, an entry of a tree or a path to one, names
+     *  an executable file. */
+    private static boolean isExecutable(String name) {
+        return !name.isEmpty() && name.charAt(name.length() - 1) == EXEC;
+    }
+
+    /** Returns NAME, an entry of a tree or a path to one, without the
+     *  EXEC ending it, if any. */
+    private static String pathOf(String name) {
+        return isExecutable(name) ? name.substring(0, name.length() - 1)
+            : name;
+    }
+
+    /** Writes the tree with ENTRIES, unless it is already present, and
+     *  returns its ID. */
+    private ObjectId put(TreeMap<String, ObjectId> entries) {
+        byte[] contents = format(entries);
+        ObjectId id = Utils.sha1Id(contents);
+        _objects.write(id, ObjectStore.TREE, contents);
+        CACHE.put(id, entries);
+        return id;
+    }
+
+    /** Returns the stored form of a tree with ENTRIES. */
+    private static byte[] format(TreeMap<String, ObjectId> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, ObjectId> e : entries.entrySet()) {
+            String name = e.getKey();
+            String header = isDir(name)
+                ? DIR_MODE + " " + name.substring(0, name.length() - 1)
+                : isExecutable(name) ? EXEC_MODE + " " + pathOf(name)
+                : FILE_MODE + " " + name;
+            out.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.writeBytes(e.getValue().toRaw());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the entries of the tree whose stored form is DATA. */
+    private static TreeMap<String, ObjectId> parse(byte[] data) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos, nul;
+            while (data[space] != ' ') {
+                space += 1;
+            }
+            for (nul = space; data[nul] != 0; nul += 1) {
+                continue;
+            }
+            String mode = new String(data, pos, space - pos,
+                                     StandardCharsets.US_ASCII);
+            String name = new String(data, space + 1, nul - space - 1,
+                                     StandardCharsets.UTF_8);
+            if (mode.equals(DIR_MODE)) {
+                name += "/";
+            } else if (mode.equals(EXEC_MODE)) {
+                name += EXEC;
+            }
+            result.put(name, ObjectId.fromRaw(data, nul + 1));
+            pos = nul + 1 + ObjectId.LENGTH;
+        }
+        return result;
+    }
+
+    /** Returns the entries of MAP whose keys start with PREFIX. */
+    private static NavigableMap<String, ObjectId> under(
+        NavigableMap<String, ObjectId> map, String prefix) {
+        return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /** Returns the last key of MAP starting with PREFIX. */
+    private static String lastUnder(NavigableMap<String, ObjectId> map,
+                                    String prefix) {
+        return under(map, prefix).lastKey();
+    }
+
+    /** Trees read or written in this process, by ID, weighed by their
+     *  numbers of entries. */
+    static final ObjectCache<TreeMap<String, ObjectId>> CACHE =
+        new ObjectCache<>(1 << 18, t -> t.size() + 1);
+
+    /** Mode of a subdirectory entry. */
+    private static final String DIR_MODE = "40000";
+    /** Mode of a file entry. */
+    private static final String FILE_MODE = "100644";
+    /** Mode of an executable file entry. */
+    private static final String EXEC_MODE = "100755";
+    /** The entries of an empty tree. */
+    private static final TreeMap<String, ObjectId> EMPTY = new TreeMap<>();
+
+    /** Objects holding the trees. */
+    private final ObjectStore _objects;
+}
@@ -1,11 +1,36 @@
 package gitlet;
 
 import ucb.junit.textui;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
 /** The suite of all JUnit tests for the gitlet package.
- *  @author
+ *  @author Nithish Rajan
  */
 public class UnitTest {
 
@@ -15,11 +40,1052 @@ public class UnitTest {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
-    /** A dummy test to avoid complaint. */
+    /** Directory for the files a test writes. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Packing moves the loose refs into the sorted packed-refs file, a
+     *  loose ref written later overrides the packed one, and a deleted
+     *  packed branch stays deleted. */
     @Test
-    public void placeholderTest() {
+    public void packedRefs() throws IOException {
+        File dir = tmp.newFolder("branches");
+        File packed = new File(tmp.getRoot(), "packed-refs");
+        Refs refs = new Refs(dir, packed);
+        ObjectId a = Utils.sha1Id("a"), b = Utils.sha1Id("b"),
+            c = Utils.sha1Id("c");
+        refs.update("other", null, b);
+        refs.update("master", null, a);
+        refs.setHead("master");
+        refs.pack();
+        assertEquals(List.of(Refs.HEAD), Utils.plainFilenamesIn(dir));
+        assertEquals(a.name() + " master\n" + b.name() + " other\n",
+                     Utils.readContentsAsString(packed));
+        Refs reopened = new Refs(dir, packed);
+        assertEquals("master", reopened.head());
+        assertEquals(a, reopened.resolve("master"));
+        reopened.update("master", a, c);
+        assertEquals(c, new Refs(dir, packed).resolve("master"));
+        assertEquals(List.of("master", "other"), reopened.names());
+        reopened.delete("other");
+        assertFalse(new Refs(dir, packed).exists("other"));
+        assertEquals(List.of("master"), new Refs(dir, packed).names());
     }
 
-}
+    /** A delta of an edited copy rebuilds the copy and is much smaller
+     *  than it. */
+    @Test
+    public void deltaRoundTrip() {
+        byte[] base = randomBytes(1, 8000);
+        byte[] target = new byte[base.length + 10];
+        System.arraycopy(base, 0, target, 0, 3000);
+        System.arraycopy(base, 3000, target, 3010, base.length - 3000);
+        target[6000] ^= 1;
+        byte[] delta = Delta.create(base, target, target.length);
+        assertNotNull(delta);
+        assertTrue(delta.length < target.length / 10);
+        assertArrayEquals(target, Delta.apply(base, delta));
+    }
+
+    /** No delta is made when it would not be smaller than asked. */
+    @Test
+    public void deltaTooLarge() {
+        byte[] base = randomBytes(2, 4000);
+        byte[] other = randomBytes(3, 4000);
+        assertNull(Delta.create(base, other, other.length));
+        assertNull(Delta.create(new byte[4], base, base.length));
+        assertNull(Delta.create(base, base, 2));
+    }
 
+    /** Variable-length integers read back as written. */
+    @Test
+    public void varintRoundTrip() {
+        long[] values = { 0, 1, 127, 128, 300, 1L << 40, Long.MAX_VALUE };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long v : values) {
+            Delta.writeVarint(out, v);
+        }
+        byte[] buf = out.toByteArray();
+        int[] pos = { 0 };
+        for (long v : values) {
+            assertEquals(v, Delta.readVarint(buf, pos));
+        }
+        assertEquals(buf.length, pos[0]);
+    }
+
+    /** Objects written to a pack read back whole, from several threads
+     *  at once, including blobs kept as chains of deltas, and each is
+     *  found only under its own type. */
+    @Test
+    public void packRoundTrip() throws IOException {
+        MemoryObjectStore commits = new MemoryObjectStore(),
+            trees = new MemoryObjectStore(), blobs = new MemoryObjectStore();
+        byte[] commit = randomBytes(12, 200), tree = randomBytes(13, 200);
+        ObjectId commitId = Utils.sha1Id(commit), treeId = Utils.sha1Id(tree);
+        commits.write(commitId, ObjectStore.COMMIT, commit);
+        trees.write(treeId, ObjectStore.TREE, tree);
+        byte[] contents = randomBytes(14, 20000);
+        ArrayList<ObjectId> versions = new ArrayList<>();
+        for (int i = 0; i < 15; i += 1) {
+            contents = contents.clone();
+            contents[i * 1000] ^= 1;
+            ObjectId id = Utils.sha1Id(contents);
+            blobs.write(id, ObjectStore.BLOB, contents);
+            versions.add(id);
+        }
+        PackWriter writer = new PackWriter(commits, trees, blobs);
+        writer.addCommit(commitId);
+        writer.addTree(treeId);
+        versions.forEach(id -> writer.addBlob(id, "f"));
+        File dir = tmp.newFolder("pack");
+        File pack = writer.write(dir);
+        assertTrue(pack.length() < 3 * contents.length);
 
+        PackDirectory packs = new PackDirectory(dir);
+        PackObjectStore packedCommits =
+            new PackObjectStore(packs, ObjectStore.COMMIT);
+        PackObjectStore packedBlobs =
+            new PackObjectStore(packs, ObjectStore.BLOB);
+        assertArrayEquals(commit, packedCommits.read(commitId));
+        assertArrayEquals(tree,
+                          new PackObjectStore(packs, ObjectStore.TREE)
+                          .read(treeId));
+        versions.parallelStream().forEach(id ->
+            assertArrayEquals(blobs.read(id), packedBlobs.read(id)));
+        assertEquals(List.of(commitId), packedCommits.ids());
+        assertEquals(new TreeSet<>(versions),
+                     new TreeSet<>(packedBlobs.ids()));
+        assertFalse(packedBlobs.has(commitId));
+        assertFalse(packedCommits.has(versions.get(0)));
+        packs.packs().forEach(PackFile::close);
+    }
+
+    /** Several threads storing the same contents at once leave one
+     *  object and no temporary files. */
+    @Test
+    public void looseInsertRace() throws Exception {
+        File dir = tmp.newFolder("objects");
+        File src = tmp.newFile("src");
+        Files.write(src.toPath(), randomBytes(9, 100000));
+        LooseObjectStore store = new LooseObjectStore(dir);
+        List<ObjectId> ids = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i += 1) {
+            threads.add(new Thread(() -> {
+                ObjectId id = store.insert(ObjectStore.BLOB, src);
+                synchronized (ids) {
+                    ids.add(id);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(8, ids.size());
+        assertEquals(1, new HashSet<>(ids).size());
+        assertEquals(List.of(ids.get(0)), store.ids());
+        assertArrayEquals(Files.readAllBytes(src.toPath()),
+                          store.read(ids.get(0)));
+        assertEquals(List.of(), Utils.plainFilenamesIn(dir));
+    }
+
+    /** Pruning removes old unreachable objects and old temporary files,
+     *  and keeps the rest. */
+    @Test
+    public void loosePrune() throws IOException {
+        File dir = tmp.newFolder("objects");
+        LooseObjectStore store = new LooseObjectStore(dir);
+        byte[] a = randomBytes(10, 100), b = randomBytes(11, 100);
+        ObjectId kept = Utils.sha1Id(a), old = Utils.sha1Id(b);
+        store.write(kept, ObjectStore.BLOB, a);
+        store.write(old, ObjectStore.BLOB, b);
+        File stale = new File(dir, "tmp-1");
+        File fresh = new File(dir, "tmp-2");
+        Files.write(stale.toPath(), a);
+        Files.write(fresh.toPath(), a);
+        for (File f : new File[] { stale, store.file(kept),
+                                   store.file(old) }) {
+            assertTrue(f.setLastModified(0));
+        }
+        store.prune(Set.of(kept), System.currentTimeMillis() - 60000);
+        assertTrue(store.has(kept));
+        assertFalse(store.has(old));
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+    }
+
+    /** The batch operations find the missing objects, and read and write
+     *  several objects at once, keeping the order given. */
+    @Test
+    public void batchOperations() {
+        MemoryObjectStore store = new MemoryObjectStore();
+        TreeMap<ObjectId, byte[]> objects = new TreeMap<>();
+        for (int i = 0; i < 3; i += 1) {
+            byte[] contents = randomBytes(20 + i, 50);
+            objects.put(Utils.sha1Id(contents), contents);
+        }
+        List<ObjectId> ids = new ArrayList<>(objects.keySet());
+        ObjectId absent = Utils.sha1Id("absent");
+        assertEquals(ids, store.missing(ids));
+        store.writeAll(ObjectStore.BLOB, objects);
+        assertEquals(List.of(absent),
+                     store.missing(List.of(ids.get(1), absent)));
+        List<ObjectId> reversed = new ArrayList<>(ids);
+        Collections.reverse(reversed);
+        Map<ObjectId, byte[]> read = store.readAll(reversed);
+        assertEquals(reversed, new ArrayList<>(read.keySet()));
+        for (ObjectId id : ids) {
+            assertArrayEquals(objects.get(id), read.get(id));
+        }
+    }
+
+    /** Init, add, commit, branch, checkout and merge run against stores
+     *  kept in memory, touching only the working files. */
+    @Test
+    public void memoryRepo() throws IOException {
+        File root = tmp.newFolder("work");
+        MemoryObjectStore commits = new MemoryObjectStore();
+        MemoryObjectStore trees = new MemoryObjectStore();
+        ChunkedObjectStore blobs =
+            new ChunkedObjectStore(new MemoryObjectStore(),
+                                   new MemoryObjectStore());
+        MemoryRefStore refs = new MemoryRefStore();
+        MemoryIndexStore index = new MemoryIndexStore();
+        Supplier<Repo> open =
+            () -> new Repo(commits, trees, blobs, refs, index, root);
+        open.get().init();
+        assertEquals("master", refs.head());
+        assertNotNull(index.read());
+        writeFile(root, "a.txt", "one");
+        writeFile(root, "dir/b.txt", "b");
+        open.get().add("a.txt", "dir");
+        open.get().commit("first");
+        open.get().branch("other");
+        writeFile(root, "a.txt", "two");
+        open.get().add("a.txt");
+        open.get().commit("second");
+        open.get().branchCheck("other");
+        assertEquals("one", readFile(root, "a.txt"));
+        writeFile(root, "c.txt", "c");
+        open.get().add("c.txt");
+        open.get().commit("third");
+        open.get().branchCheck("master");
+        assertEquals("two", readFile(root, "a.txt"));
+        assertFalse(new File(root, "c.txt").exists());
+        open.get().merge("other");
+        Commit merged = open.get().recentCommit();
+        assertEquals("Merged other into master.", merged.getMessage());
+        assertEquals(refs.resolve("other"), merged.getParent2()[1]);
+        assertEquals("two", readFile(root, "a.txt"));
+        assertEquals("b", readFile(root, "dir/b.txt"));
+        assertEquals("c", readFile(root, "c.txt"));
+        assertEquals(5, commits.ids().size());
+        assertFalse(StagingArea.read(index, root)
+                    .hasChanges(new TreeStore(trees), merged.getTree()));
+        assertEquals(Set.of("a.txt", "c.txt", "dir"),
+                     new HashSet<>(Arrays.asList(root.list())));
+    }
+
+    /** Indexes written by each older version are read, and written back
+     *  in the current format with nothing lost. */
+    @Test
+    public void indexOldVersions() throws IOException {
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        ObjectId empty = trees.write(new TreeMap<>());
+        for (int version = 1; version <= 3; version += 1) {
+            File file = new File(tmp.getRoot(), "index" + version);
+            Files.write(file.toPath(), oldIndex(version));
+            StagingArea stage = StagingArea.read(file);
+            assertEquals(Set.of("a", "b"), stage.entries().keySet());
+            StagingArea.Entry a = stage.get("a");
+            assertEquals(BLOB_A, a.id());
+            assertEquals(3, a.size());
+            assertEquals(version == 1 ? 5_000_000 : 5, a.mtime());
+            assertEquals(version == 1 ? StagingArea.NO_INODE : 7, a.ino());
+            assertFalse(a.executable());
+            assertTrue(stage.get("b").executable());
+
+            stage.remove("b", trees, empty);
+            stage.write();
+            assertArrayEquals(currentIndex(version),
+                              Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    /** An index written in the current format reads back the same,
+     *  including the tree it matched and the paths changed since. */
+    @Test
+    public void indexRoundTrip() {
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        TreeMap<String, ObjectId> files = new TreeMap<>();
+        files.put("a", BLOB_A);
+        files.put("d/b", BLOB_B);
+        ObjectId tree = trees.edit(null, files, Set.of("d/b"));
+        ObjectId empty = trees.write(new TreeMap<>());
+        File file = new File(tmp.getRoot(), "index");
+        StagingArea stage = new StagingArea(file);
+        stage.clear(trees, tree);
+        stage.write();
+
+        StagingArea read = StagingArea.read(file);
+        assertEquals(files.keySet(), read.entries().keySet());
+        assertTrue(read.get("d/b").executable());
+        assertFalse(read.get("a").executable());
+        assertFalse(read.hasChanges(trees, tree));
+        assertEquals(files, read.changes(trees, empty));
+
+        read.remove("a", trees, tree);
+        read.write();
+        StagingArea again = StagingArea.read(file);
+        TreeMap<String, ObjectId> removed = new TreeMap<>();
+        removed.put("a", null);
+        assertEquals(removed, again.changes(trees, tree));
+        files.put("c", BLOB_A);
+        removed.put("c", null);
+        assertEquals(removed,
+                     again.changes(trees, trees.edit(null, files,
+                                                     Set.of("d/b"))));
+        assertEquals(Map.of("d/b", BLOB_B), again.changes(trees, empty));
+    }
+
+    /** A damaged index is refused. */
+    @Test(expected = IllegalArgumentException.class)
+    public void indexCorrupt() throws IOException {
+        File file = new File(tmp.getRoot(), "index");
+        byte[] data = oldIndex(3);
+        data[20] ^= 1;
+        Files.write(file.toPath(), data);
+        StagingArea.read(file);
+    }
+
+    /** A path too long for the index is refused rather than cut short,
+     *  and the index on disk is left as it was. */
+    @Test
+    public void indexPathTooLong() throws IOException {
+        assertTrue(StagingArea.fits("\u00e9".repeat(32767)));
+        assertFalse(StagingArea.fits("\u00e9".repeat(32768)));
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        ObjectId empty = trees.write(new TreeMap<>());
+        File file = new File(tmp.getRoot(), "index");
+        byte[] data = oldIndex(3);
+        Files.write(file.toPath(), data);
+        StagingArea stage = StagingArea.read(file);
+        stage.remove("d".repeat(StagingArea.MAX_PATH + 1), trees, empty);
+        try {
+            stage.write();
+            fail("wrote a path too long for the index");
+        } catch (IllegalArgumentException excp) {
+            assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    /** Checkout, merge and reset record the file data of the working
+     *  files they write, and keep that of the entries they leave alone,
+     *  so no tracked file is left to be read by the next status. */
+    @Test
+    public void indexKeepsFileData() throws IOException {
+        File root = tmp.newFolder("work");
+        MemoryObjectStore commits = new MemoryObjectStore();
+        MemoryObjectStore trees = new MemoryObjectStore();
+        ChunkedObjectStore blobs =
+            new ChunkedObjectStore(new MemoryObjectStore(),
+                                   new MemoryObjectStore());
+        MemoryRefStore refs = new MemoryRefStore();
+        MemoryIndexStore index = new MemoryIndexStore();
+        Supplier<Repo> open =
+            () -> new Repo(commits, trees, blobs, refs, index, root);
+        open.get().init();
+        writeFile(root, "a.txt", "one");
+        writeFile(root, "b.txt", "b");
+        open.get().add("a.txt", "b.txt");
+        open.get().commit("first");
+        ObjectId first = refs.resolve("master");
+        open.get().branch("other");
+        writeFile(root, "a.txt", "two");
+        open.get().add("a.txt");
+        open.get().commit("second");
+        open.get().branchCheck("other");
+        assertFileDataKnown(index, root, "a.txt", "b.txt");
+        writeFile(root, "c.txt", "c");
+        open.get().add("c.txt");
+        open.get().commit("third");
+        open.get().branchCheck("master");
+        assertFileDataKnown(index, root, "a.txt", "b.txt");
+        open.get().merge("other");
+        assertFileDataKnown(index, root, "a.txt", "b.txt", "c.txt");
+        open.get().reset(first.name());
+        assertFileDataKnown(index, root, "a.txt", "b.txt");
+        assertEquals("one", readFile(root, "a.txt"));
+    }
+
+    /** Editing a tree rewrites only the directories changed, drops those
+     *  left empty, and records which files are executable; diffing two
+     *  trees finds exactly the files changed, including a change of the
+     *  executable bit alone. */
+    @Test
+    public void treeEditAndDiff() {
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        TreeMap<String, ObjectId> files = new TreeMap<>();
+        files.put("a.txt", BLOB_A);
+        files.put("dir/b.txt", BLOB_B);
+        files.put("dir/sub/c.txt", BLOB_A);
+        files.put("other/d.txt", BLOB_B);
+        ObjectId before = trees.write(files);
+        assertEquals(files, trees.flatten(before));
+        assertEquals(before, trees.write(new TreeMap<>(files)));
+        TreeMap<String, ObjectId> changes = new TreeMap<>();
+        changes.put("dir/b.txt", BLOB_A);
+        changes.put("dir/sub/c.txt", null);
+        changes.put("new/e.sh", BLOB_B);
+        ObjectId after = trees.edit(before, changes, Set.of("new/e.sh"));
+        assertEquals(trees.lookupDir(before, "other"),
+                     trees.lookupDir(after, "other"));
+        assertNull(trees.lookupDir(after, "dir/sub"));
+        assertEquals(BLOB_A, trees.lookup(after, "dir/b.txt"));
+        assertEquals(BLOB_B, trees.lookup(after, "new/e.sh"));
+        assertTrue(trees.executable(after, "new/e.sh"));
+        assertFalse(trees.executable(after, "dir/b.txt"));
+        HashSet<String> executables = new HashSet<>();
+        assertEquals(Set.of("a.txt", "dir/b.txt", "new/e.sh", "other/d.txt"),
+                     trees.flatten(after, executables).keySet());
+        assertEquals(Set.of("new/e.sh"), executables);
+        TreeMap<String, ObjectId[]> diff = trees.diff(before, after);
+        assertEquals(Set.of("dir/b.txt", "dir/sub/c.txt", "new/e.sh"),
+                     diff.keySet());
+        assertArrayEquals(new ObjectId[] { BLOB_B, BLOB_A },
+                          diff.get("dir/b.txt"));
+        assertArrayEquals(new ObjectId[] { BLOB_A, null },
+                          diff.get("dir/sub/c.txt"));
+        assertArrayEquals(new ObjectId[] { null, BLOB_B },
+                          diff.get("new/e.sh"));
+        TreeMap<String, ObjectId> chmod = new TreeMap<>();
+        chmod.put("a.txt", BLOB_A);
+        ObjectId exec = trees.edit(after, chmod, Set.of("a.txt"));
+        assertTrue(trees.executable(exec, "a.txt"));
+        assertEquals(BLOB_A, trees.lookup(exec, "a.txt"));
+        diff = trees.diff(after, exec);
+        assertEquals(Set.of("a.txt"), diff.keySet());
+        assertArrayEquals(new ObjectId[] { BLOB_A, BLOB_A },
+                          diff.get("a.txt"));
+        assertTrue(trees.diff(exec, exec).isEmpty());
+    }
+
+    /** A client learns from a running monitor's journal the paths changed
+     *  since its token, and that they are not known for a token of
+     *  another journal; with no monitor running it learns nothing. */
+    @Test(timeout = 30000)
+    public void fsMonitorJournal() throws Exception {
+        File work = tmp.newFolder("work");
+        File dir = new File(tmp.getRoot(), "fsmonitor");
+        FsMonitor monitor = new FsMonitor(work, dir);
+        assertNull(monitor.changedSince(null));
+        Thread daemon = new Thread(new FsMonitor(work, dir)::run);
+        daemon.start();
+        try {
+            FsMonitor.Changes first = monitor.changedSince(null);
+            while (first == null) {
+                Thread.sleep(10);
+                first = monitor.changedSince(null);
+            }
+            assertNull(first.paths());
+            writeFile(work, "a.txt", "a");
+            FsMonitor.Changes second = monitor.changedSince(first.token());
+            assertTrue(second.paths().contains("a.txt"));
+            FsMonitor.Changes third = monitor.changedSince(second.token());
+            assertEquals(Set.of(), third.paths());
+            assertNull(monitor.changedSince("other:0").paths());
+        } finally {
+            daemon.interrupt();
+            daemon.join();
+        }
+        assertNull(monitor.changedSince(null));
+    }
+
+    /** Short data is one chunk, and chunks are never too long. */
+    @Test
+    public void cutPointBounds() {
+        byte[] small = randomBytes(5, 1000);
+        assertEquals(small.length,
+                     ChunkedObjectStore.cutPoint(small, small.length));
+        byte[] zeros = new byte[ChunkedObjectStore.MAX_CHUNK];
+        assertEquals(ChunkedObjectStore.MAX_CHUNK,
+                     ChunkedObjectStore.cutPoint(zeros, zeros.length));
+    }
+
+    /** Inserting bytes near the start of the data moves only the first
+     *  cuts; the rest fall at the same contents as before. */
+    @Test
+    public void cutPointsResynchronize() {
+        byte[] data = randomBytes(6, 3 << 20);
+        byte[] shifted = new byte[data.length + 100];
+        System.arraycopy(data, 0, shifted, 100, data.length);
+        List<Integer> before = cuts(data);
+        HashSet<Integer> after = new HashSet<>();
+        for (int end : cuts(shifted)) {
+            after.add(end - 100);
+        }
+        assertTrue(before.size() > 10);
+        assertEquals(data.length, (int) before.get(before.size() - 1));
+        int kept = 0;
+        for (int end : before) {
+            if (after.contains(end)) {
+                kept += 1;
+            }
+        }
+        assertTrue(kept >= before.size() - 2);
+    }
+
+    /** A large blob is kept in chunks and reads back whole; a small one
+     *  is kept whole. */
+    @Test
+    public void chunkedRoundTrip() {
+        ChunkedObjectStore store =
+            new ChunkedObjectStore(new MemoryObjectStore(),
+                                   new MemoryObjectStore());
+        byte[] large = randomBytes(7, 3 << 20);
+        ObjectId id = Utils.sha1Id(large);
+        store.write(id, ObjectStore.BLOB, large);
+        assertTrue(store.has(id));
+        assertTrue(store.isChunked(id));
+        assertTrue(store.chunks(id).size() > 1);
+        assertArrayEquals(large, store.read(id));
+        byte[] small = randomBytes(8, 100);
+        ObjectId smallId = Utils.sha1Id(small);
+        store.write(smallId, ObjectStore.BLOB, small);
+        assertFalse(store.isChunked(smallId));
+        assertArrayEquals(small, store.read(smallId));
+    }
+
+    /** Of two commands that read the index and then change it, the second
+     *  to write fails rather than undo the first. */
+    @Test
+    public void indexChangedMeanwhile() throws IOException {
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        ObjectId empty = trees.write(new TreeMap<>());
+        File file = new File(tmp.getRoot(), "index");
+        Files.write(file.toPath(), oldIndex(3));
+        StagingArea first = StagingArea.read(file);
+        StagingArea second = StagingArea.read(file);
+        first.remove("a", trees, empty);
+        second.remove("b", trees, empty);
+        first.write();
+        try {
+            second.write();
+            fail("second write succeeded");
+        } catch (GitletException excp) {
+            assertEquals("The index was changed by another command.",
+                         excp.getMessage());
+        }
+        assertEquals(Set.of("b"), StagingArea.read(file).entries().keySet());
+    }
+
+    /** A branch moves only from where the command found it, whether the
+     *  branches are kept on disk or in memory, and only valid names are
+     *  taken. */
+    @Test
+    public void refsCompareAndSwap() throws IOException {
+        File dir = tmp.newFolder("branches");
+        ObjectId a = Utils.sha1Id("a"), b = Utils.sha1Id("b");
+        for (RefStore refs
+                 : List.of(new Refs(dir, new File(tmp.getRoot(), "packed")),
+                           new MemoryRefStore())) {
+            refs.update("master", null, a);
+            refs.update("master", a, b);
+            for (ObjectId expected : Arrays.asList(a, null)) {
+                try {
+                    refs.update("master", expected, a);
+                    fail("stale update succeeded");
+                } catch (GitletException excp) {
+                    assertEquals("Branch master was changed by another "
+                                 + "command.", excp.getMessage());
+                }
+            }
+            for (String name : List.of("a/b", ".x", "x.lock",
+                                       Refs.HEAD)) {
+                try {
+                    refs.update(name, null, a);
+                    fail("invalid name " + name + " taken");
+                } catch (GitletException excp) {
+                    assertFalse(refs.exists(name));
+                }
+            }
+            assertEquals(b, refs.resolve("master"));
+            assertEquals(List.of("master"), refs.names());
+        }
+        assertEquals(List.of("master"), Utils.plainFilenamesIn(dir));
+    }
+
+    /** A locked file cannot be locked again until released.  Releasing
+     *  the lock without committing leaves the file as it was, and
+     *  committing replaces it whole; no lock file is left either way. */
+    @Test
+    public void lockFile() throws IOException {
+        File dir = tmp.newFolder("locks");
+        File file = new File(dir, "f");
+        Utils.writeContents(file, "old");
+        LockFile lock = new LockFile(file);
+        try {
+            new LockFile(file);
+            fail("file locked twice");
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().startsWith("Unable to lock f"));
+        }
+        lock.write("new".getBytes(StandardCharsets.UTF_8));
+        lock.close();
+        assertEquals("old", Utils.readContentsAsString(file));
+        assertEquals(List.of("f"), Utils.plainFilenamesIn(dir));
+        try (LockFile again = new LockFile(file)) {
+            again.write("new".getBytes(StandardCharsets.UTF_8));
+            assertEquals("old", Utils.readContentsAsString(file));
+            again.commit();
+        }
+        assertEquals("new", Utils.readContentsAsString(file));
+        assertEquals(List.of("f"), Utils.plainFilenamesIn(dir));
+    }
+
+    /** The merge base is the nearest common ancestor, or null if there is
+     *  none. */
+    @Test
+    public void mergeBase() {
+        CommitStore commits = new CommitStore(new MemoryObjectStore());
+        ObjectId tree = new TreeStore(new MemoryObjectStore())
+            .write(new TreeMap<>());
+        ObjectId root = commits.put(commit("root", null, tree));
+        ObjectId a1 = commits.put(commit("a1", root, tree));
+        ObjectId b1 = commits.put(commit("b1", root, tree));
+        ObjectId a2 = commits.put(commit("a2", a1, tree));
+        ObjectId b2 = commits.put(new Commit("merge a1", ZonedDateTime.now(),
+                                             b1, a1, tree));
+        ObjectId b3 = commits.put(commit("b3", b2, tree));
+        assertEquals(a1, commits.mergeBase(a2, b3));
+        assertEquals(a1, commits.mergeBase(b3, a2));
+        assertEquals(root, commits.mergeBase(a1, b1));
+        assertEquals(a2, commits.mergeBase(a2, a2));
+        assertEquals(a1, commits.mergeBase(a1, a2));
+        ObjectId other = commits.put(commit("other", null, tree));
+        assertNull(commits.mergeBase(other, b3));
+    }
+
+    /** Only commits made since the commit graph was written count as
+     *  missing from it, up to the limit asked for, and walks over history
+     *  give the same answers whether or not they use the graph. */
+    @Test
+    public void commitGraphMissing() {
+        CommitStore commits = new CommitStore(new MemoryObjectStore());
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        ObjectId tree = trees.write(new TreeMap<>());
+        ObjectId tip = commits.put(commit("root", null, tree));
+        for (int i = 0; i < 5; i += 1) {
+            tip = commits.put(commit("c" + i, tip, tree));
+        }
+        assertEquals(6, commits.missingFromGraph(tip, 10));
+        assertEquals(4, commits.missingFromGraph(tip, 4));
+        File file = new File(tmp.getRoot(), "commit-graph");
+        CommitGraph.write(file, commits, trees, List.of(tip));
+        commits.setGraph(CommitGraph.read(file));
+        assertEquals(0, commits.missingFromGraph(tip, 10));
+        ObjectId a = commits.put(commit("a", tip, tree));
+        ObjectId side = commits.put(commit("side", tip, tree));
+        ObjectId merged = commits.put(new Commit("merge", ZonedDateTime.now(),
+                                                 a, side, tree));
+        assertEquals(3, commits.missingFromGraph(merged, 10));
+        assertEquals(2, commits.missingFromGraph(merged, 2));
+        assertEquals(tip, commits.mergeBase(a, side));
+        assertEquals(7, commits.generation(a));
+        assertEquals(8, commits.generation(merged));
+    }
+
+    /** Bitmaps decode to what was encoded. */
+    @Test
+    public void bitmapRoundTrip() {
+        Random r = new Random(4);
+        for (int trial = 0; trial < 50; trial += 1) {
+            BitSet bits = new BitSet();
+            int n = r.nextInt(5000);
+            for (int i = 0; i < n; i += 1 + r.nextInt(3)) {
+                if (r.nextInt(4) == 0) {
+                    int run = r.nextInt(500);
+                    bits.set(i, i + run);
+                    i += run;
+                } else if (r.nextBoolean()) {
+                    bits.set(i);
+                }
+            }
+            long[] words = CommitBitmaps.encode(bits);
+            assertEquals(bits, CommitBitmaps.decode(words));
+        }
+        assertEquals(new BitSet(),
+                     CommitBitmaps.decode(CommitBitmaps.encode(new BitSet())));
+    }
+
+    /** Long runs of ones or zeros take one word each. */
+    @Test
+    public void bitmapRuns() {
+        BitSet bits = new BitSet();
+        bits.set(0, 64 * 1000);
+        bits.set(64 * 3000 + 5);
+        long[] words = CommitBitmaps.encode(bits);
+        assertEquals(3, words.length);
+        assertEquals(bits, CommitBitmaps.decode(words));
+    }
+
+    /** The message index finds commits by whole message and by words,
+     *  both before and after its journal is merged. */
+    @Test
+    public void messageIndex() {
+        File file = new File(tmp.getRoot(), "messages");
+        MessageIndex index = new MessageIndex(file);
+        ObjectId c1 = Utils.sha1Id("c1"), c2 = Utils.sha1Id("c2"),
+            c3 = Utils.sha1Id("c3");
+        index.add(c1, "ignored");
+        assertFalse(index.exists());
+        TreeMap<ObjectId, String> messages = new TreeMap<>();
+        messages.put(c1, "Fix the parser");
+        messages.put(c2, "Add tests");
+        index.build(messages);
+        assertTrue(index.exists());
+        assertTrue(index.withMessage("Add tests").contains(c2));
+        assertFalse(index.withMessage("Add tests").contains(c1));
+        assertTrue(index.containing("PARS").contains(c1));
+        assertFalse(index.containing("pars").contains(c2));
+        assertNull(index.containing("  "));
+        index.add(c3, "Parser tests");
+        assertTrue(index.containing("parser").containsAll(List.of(c1, c3)));
+        assertTrue(index.withMessage("Parser tests").contains(c3));
+        index.compact();
+        MessageIndex reopened = new MessageIndex(file);
+        assertTrue(reopened.withMessage("Parser tests").contains(c3));
+        assertTrue(reopened.containing("tests").containsAll(List.of(c2, c3)));
+        assertFalse(reopened.containing("fix").contains(c3));
+    }
+
+    /** A commit is found by its whole ID, or by a prefix of at least
+     *  MIN_ABBREV digits in either case that no other commit shares; a
+     *  shorter prefix finds nothing, and an ambiguous one is refused. */
+    @Test
+    public void resolveAbbreviations() throws IOException {
+        MemoryObjectStore objects = new MemoryObjectStore(),
+            packed = new MemoryObjectStore();
+        String a = "abcd1" + "0".repeat(35), b = "abcd2" + "0".repeat(35),
+            c = "abce" + "1".repeat(36), d = "abcd3" + "0".repeat(35);
+        for (String id : List.of(a, b, c, d)) {
+            (id.equals(d) ? packed : objects).write(ObjectId.fromHex(id),
+                ObjectStore.COMMIT, id.getBytes(StandardCharsets.UTF_8));
+        }
+        PackWriter writer = new PackWriter(packed, new MemoryObjectStore(),
+                                           new MemoryObjectStore());
+        writer.addCommit(ObjectId.fromHex(d));
+        File dir = tmp.newFolder("pack");
+        writer.write(dir);
+        PackDirectory packs = new PackDirectory(dir);
+        CommitStore commits = new CommitStore(new ChainedObjectStore(
+            new PackObjectStore(packs, ObjectStore.COMMIT), objects));
+        assertEquals(ObjectId.fromHex(a), commits.resolve(a));
+        assertEquals(ObjectId.fromHex(a), commits.resolve("ABCD1"));
+        assertEquals(ObjectId.fromHex(b), commits.resolve("abcd2"));
+        assertEquals(ObjectId.fromHex(c), commits.resolve("abce"));
+        assertEquals(ObjectId.fromHex(d), commits.resolve("ABCD3"));
+        assertNull(commits.resolve("abc"));
+        assertNull(commits.resolve("abcf"));
+        assertNull(commits.resolve("abcx"));
+        assertNull(commits.resolve("0".repeat(40)));
+        try {
+            commits.resolve("abcd");
+            fail("ambiguous prefix resolved");
+        } catch (GitletException excp) {
+            assertEquals("Commit id abcd is ambiguous; it matches 3 "
+                         + "commits.", excp.getMessage());
+        }
+        packs.packs().forEach(PackFile::close);
+    }
+
+    /** The cache discards the least recently used values, and counts its
+     *  hits and misses. */
+    @Test
+    public void cacheEviction() {
+        ObjectCache<String> cache = new ObjectCache<>(10, String::length);
+        ObjectId a = Utils.sha1Id("a"), b = Utils.sha1Id("b"),
+            c = Utils.sha1Id("c"), d = Utils.sha1Id("d");
+        cache.put(a, "aaaa");
+        cache.put(b, "bbbb");
+        assertEquals("aaaa", cache.get(a));
+        cache.put(c, "cccc");
+        assertNull(cache.get(b));
+        assertEquals("aaaa", cache.get(a));
+        assertEquals("cccc", cache.get(c));
+        cache.put(d, "ddddddddddd");
+        assertNull(cache.get(d));
+        cache.remove(a);
+        assertNull(cache.get(a));
+        assertEquals(3, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    /** A commit's changed-path filter admits every path it changed and
+     *  the directories holding them, and rules out nearly all others;
+     *  commits that changed too many paths, or are missing from the
+     *  graph, may have changed any path. */
+    @Test
+    public void changedPathFilters() {
+        CommitStore commits = new CommitStore(new MemoryObjectStore());
+        TreeStore trees = new TreeStore(new MemoryObjectStore());
+        TreeMap<String, ObjectId> files = new TreeMap<>();
+        files.put("a.txt", BLOB_A);
+        files.put("dir/sub/b.txt", BLOB_A);
+        ObjectId root = commits.put(commit("root", null, trees.write(files)));
+        files.put("dir/sub/b.txt", BLOB_B);
+        ObjectId tree = trees.write(files);
+        ObjectId edited = commits.put(commit("edit", root, tree));
+        for (int i = 0; i < 600; i += 1) {
+            files.put("many/" + i, BLOB_A);
+        }
+        ObjectId many = commits.put(commit("many", edited,
+                                           trees.write(files)));
+        File file = new File(tmp.getRoot(), "commit-graph");
+        CommitGraph.write(file, commits, trees, List.of(many));
+        commits.setGraph(CommitGraph.read(file));
+        for (String path : List.of("a.txt", "dir", "dir/sub",
+                                   "dir/sub/b.txt")) {
+            assertTrue(path, commits.mayHaveChanged(
+                           root, CommitGraph.pathKey(path)));
+        }
+        for (String path : List.of("dir", "dir/sub", "dir/sub/b.txt")) {
+            assertTrue(path, commits.mayHaveChanged(
+                           edited, CommitGraph.pathKey(path)));
+        }
+        assertFalse(commits.mayHaveChanged(edited,
+                                           CommitGraph.pathKey("a.txt")));
+        int admitted = 0;
+        for (int i = 0; i < 1000; i += 1) {
+            if (commits.mayHaveChanged(edited,
+                                       CommitGraph.pathKey("other/" + i))) {
+                admitted += 1;
+            }
+        }
+        assertTrue(admitted < 50);
+        assertTrue(commits.mayHaveChanged(many,
+                                          CommitGraph.pathKey("a.txt")));
+        ObjectId later = commits.put(commit("later", many, tree));
+        assertTrue(commits.mayHaveChanged(later,
+                                          CommitGraph.pathKey("a.txt")));
+    }
+
+    /** log -- PATH lists, newest first, just the commits that changed the
+     *  file or directory PATH, counting a change of the executable bit
+     *  alone. */
+    @Test
+    public void logPath() throws IOException {
+        File root = tmp.newFolder("work");
+        Supplier<Repo> open = memoryRepo(root);
+        open.get().init();
+        writeFile(root, "a.txt", "one");
+        open.get().add("a.txt");
+        open.get().commit("add a");
+        writeFile(root, "dir/b.txt", "one");
+        open.get().add("dir");
+        open.get().commit("add b");
+        writeFile(root, "a.txt", "two");
+        open.get().add("a.txt");
+        open.get().commit("edit a");
+        writeFile(root, "dir/b.txt", "two");
+        open.get().add("dir/b.txt");
+        open.get().commit("edit b");
+        assertTrue(new File(root, "a.txt").setExecutable(true));
+        open.get().add("a.txt");
+        open.get().commit("chmod a");
+        assertEquals(List.of("chmod a", "edit a", "add a"),
+                     logMessages(open, "a.txt"));
+        assertEquals(List.of("edit b", "add b"), logMessages(open, "dir"));
+        assertEquals(List.of("edit b", "add b"),
+                     logMessages(open, "./dir/b.txt"));
+        assertEquals(List.of(), logMessages(open, "none"));
+    }
+
+    /** Returns LENGTH pseudo-random bytes generated from SEED. */
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] result = new byte[length];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /** Writes CONTENTS to file NAME under directory ROOT, creating its
+     *  directory if need be. */
+    private static void writeFile(File root, String name, String contents) {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, contents);
+    }
+
+    /** Returns the contents of file NAME under directory ROOT. */
+    private static String readFile(File root, String name) {
+        return Utils.readContentsAsString(new File(root, name));
+    }
+
+    /** Asserts that the index in INDEX, for working files under ROOT,
+     *  tracks exactly PATHS, and holds file data for each that show it
+     *  unmodified. */
+    private static void assertFileDataKnown(IndexStore index, File root,
+                                            String... paths) {
+        StagingArea stage = StagingArea.read(index, root);
+        assertEquals(Set.of(paths), stage.entries().keySet());
+        for (String path : paths) {
+            assertNotEquals(path, StagingArea.UNKNOWN_SIZE,
+                            stage.get(path).size());
+        }
+        assertEquals(Set.of(), stage.getModifiedPaths());
+    }
+
+    /** Returns a commit with message MESSAGE, parent PARENT and tree
+     *  TREE. */
+    private static Commit commit(String message, ObjectId parent,
+                                 ObjectId tree) {
+        return new Commit(message, ZonedDateTime.now(), parent, tree);
+    }
+
+    /** Returns the ends of the chunks DATA is cut into, reading it
+     *  through a buffer of MAX_CHUNK bytes as ChunkedObjectStore does. */
+    private static List<Integer> cuts(byte[] data) {
+        ArrayList<Integer> result = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            int length = Math.min(ChunkedObjectStore.MAX_CHUNK,
+                                  data.length - start);
+            byte[] buf = Arrays.copyOfRange(data, start, start + length);
+            int cut = ChunkedObjectStore.cutPoint(buf, length);
+            assertTrue(cut > 0 && cut <= ChunkedObjectStore.MAX_CHUNK);
+            start += cut;
+            result.add(start);
+        }
+        return result;
+    }
+
+    /** Returns a source of Repos, each opened afresh as by a command,
+     *  over one repository kept in memory, with working files under
+     *  ROOT. */
+    private static Supplier<Repo> memoryRepo(File root) {
+        MemoryObjectStore commits = new MemoryObjectStore();
+        MemoryObjectStore trees = new MemoryObjectStore();
+        ChunkedObjectStore blobs =
+            new ChunkedObjectStore(new MemoryObjectStore(),
+                                   new MemoryObjectStore());
+        MemoryRefStore refs = new MemoryRefStore();
+        MemoryIndexStore index = new MemoryIndexStore();
+        return () -> new Repo(commits, trees, blobs, refs, index, root);
+    }
+
+    /** Returns the messages of the commits "log -- PATH" prints in the
+     *  repository OPEN opens, in order. */
+    private static List<String> logMessages(Supplier<Repo> open,
+                                            String path) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            open.get().log(null, path);
+        } finally {
+            System.setOut(stdout);
+        }
+        ArrayList<String> result = new ArrayList<>();
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        for (int i = 0; i + 1 < lines.length; i += 1) {
+            if (lines[i].startsWith("Date: ")) {
+                result.add(lines[i + 1]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of an index file of format VERSION holding a
+     *  regular file a, found clean by the monitor, and an executable
+     *  file b, as an older version would have written it. */
+    private static byte[] oldIndex(int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write("GIDX".getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(version);
+        out.writeInt(2);
+        writeEntry(out, version, "a", BLOB_A, StagingArea.REGULAR, true);
+        writeEntry(out, version, "b", BLOB_B, StagingArea.EXECUTABLE, false);
+        if (version >= 3) {
+            writeString(out, "gen:12");
+            out.writeInt(1);
+            writeString(out, "u");
+        }
+        return withChecksum(bytes.toByteArray());
+    }
+
+    /** Returns the contents of the index read from oldIndex(VERSION)
+     *  once b has been untracked, written in the current format. */
+    private static byte[] currentIndex(int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write("GIDX".getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(4);
+        out.writeInt(1);
+        out.writeInt(StagingArea.REGULAR);
+        out.writeLong(3);
+        out.writeLong(version == 1 ? 5_000_000 : 5);
+        out.writeLong(version == 1 ? StagingArea.NO_INODE : 7);
+        out.write(version >= 3 ? 1 : 0);
+        out.write(BLOB_A.toRaw());
+        writeString(out, "a");
+        if (version >= 3) {
+            writeString(out, "gen:12");
+            out.writeInt(2);
+            writeString(out, "b");
+            writeString(out, "u");
+        } else {
+            writeString(out, "");
+            out.writeInt(-1);
+        }
+        out.write(0);
+        out.writeInt(1);
+        writeString(out, "b");
+        return withChecksum(bytes.toByteArray());
+    }
+
+    /** Writes to OUT the entry for blob ID at PATH with mode MODE, size 3,
+     *  time 5 and inode 7, flagged clean if CLEAN, in format VERSION. */
+    private static void writeEntry(DataOutputStream out, int version,
+                                   String path, ObjectId id, int mode,
+                                   boolean clean) throws IOException {
+        out.writeInt(mode);
+        out.writeLong(3);
+        out.writeLong(5);
+        if (version >= 2) {
+            out.writeLong(7);
+        }
+        if (version >= 3) {
+            out.write(clean ? 1 : 0);
+        }
+        out.write(id.toRaw());
+        writeString(out, path);
+    }
+
+    /** Writes S to OUT preceded by its length. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns DATA followed by its SHA-1. */
+    private static byte[] withChecksum(byte[] data) {
+        try {
+            byte[] sum = MessageDigest.getInstance("SHA-1").digest(data);
+            byte[] result = Arrays.copyOf(data, data.length + sum.length);
+            System.arraycopy(sum, 0, result, data.length, sum.length);
+            return result;
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A blob ID used as the contents of file a. */
+    private static final ObjectId BLOB_A = Utils.sha1Id("contents of a");
+    /** A blob ID used as the contents of file b. */
+    private static final ObjectId BLOB_B = Utils.sha1Id("contents of b");
+
+}
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -17,7 +18,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -34,6 +34,12 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        return sha1Id(vals).name();
+    }
+
+    /** Returns the SHA-1 hash of the concatenation of VALS, as for sha1,
+     *  as an ObjectId. */
+    static ObjectId sha1Id(Object... vals) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -45,13 +51,26 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return ObjectId.fromRaw(md.digest(), 0);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  fixed-size buffer rather than all at once. */
+    static ObjectId sha1Id(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[1 << 16];
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                md.update(buf, 0, n);
             }
-            return result.toString();
+            return ObjectId.fromRaw(md.digest(), 0);
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
@@ -150,6 +169,19 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from stream IN, casting it to
+     *  EXPECTEDCLASS.  Closes IN.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static <T extends Serializable> T readObject(InputStream in,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream objIn = new ObjectInputStream(in)) {
+            return expectedClass.cast(objIn.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));